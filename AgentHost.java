@@ -0,0 +1,93 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/*
+ An agent (see ExternalAgent) that plays any Player subclass, loaded by name
+ as with -player:
+
+   java AgentHost ClassName [name]
+
+ The name it reports defaults to the strategy's own with "Agent" after it, so
+ that it does not clash with the built-in strategy of the same class. It is
+ mostly a reference for agents written in other languages, and a way to check
+ that an agent plays the same as the strategy does inside the tournament. */
+
+class AgentHost {
+	static class Seat {
+		final Player player;
+		final History mine, first, second;
+		boolean asked = false; // whether there has been a round before
+
+		Seat(Player player) {
+			this.player = player;
+			mine = new History(ThreePrisonersDilemma.MAX_ROUNDS);
+			first = new History(ThreePrisonersDilemma.MAX_ROUNDS);
+			second = new History(ThreePrisonersDilemma.MAX_ROUNDS);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: java AgentHost ClassName [name]");
+			System.exit(2);
+		}
+		ThreePrisonersDilemma game = new ThreePrisonersDilemma();
+		StrategyRegistry registry = new StrategyRegistry();
+		int strategy = registry.registerClass(args[0]);
+		String name = args.length > 1 ? args[1] : registry.name(strategy) + "Agent";
+		int[] payoff = ThreePrisonersDilemma.PAYOFF;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in, 1 << 16));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out, 1 << 16));
+		if (in.readInt() != ExternalAgent.MAGIC || in.readInt() != ExternalAgent.VERSION) {
+			System.err.println("AgentHost: not a version " + ExternalAgent.VERSION + " tournament");
+			System.exit(1);
+		}
+		out.writeInt(ExternalAgent.MAGIC);
+		out.writeInt(ExternalAgent.VERSION);
+		out.writeUTF(name);
+		out.flush();
+
+		Map<Integer, Seat> seats = new HashMap<>();
+		while (true) {
+			int frame;
+			try {
+				frame = in.readByte();
+			} catch (EOFException e) {
+				return;
+			}
+			if (frame == 'Q') return;
+			if (frame != 'R') throw new IOException("AgentHost: unknown frame " + frame);
+			for (int n = in.readInt(); n > 0; n--) {
+				int id = in.readInt();
+				Player player = registry.create(strategy, game);
+				player.rng = new SplittableRandom(in.readLong());
+				seats.put(id, new Seat(player));
+			}
+			for (int n = in.readInt(); n > 0; n--)
+				seats.remove(in.readInt());
+			int count = in.readInt();
+			out.writeInt(count);
+			for (int n = 0; n < count; n++) {
+				Seat seat = seats.get(in.readInt());
+				int plays = in.readByte();
+				if (seat.asked) {
+					int my = plays >> 2, opp1 = (plays >> 1) & 1, opp2 = plays & 1;
+					seat.mine.append(my, payoff[plays]);
+					seat.first.append(opp1, payoff[opp1<<2 | opp2<<1 | my]);
+					seat.second.append(opp2, payoff[opp2<<2 | my<<1 | opp1]);
+				}
+				seat.asked = true;
+				out.writeByte(seat.player.selectAction(seat.mine.length(), seat.mine, seat.first, seat.second));
+			}
+			out.flush();
+		}
+	}
+}
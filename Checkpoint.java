@@ -0,0 +1,133 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ The progress of a long run, saved to a file every so often (see -checkpoint),
+ so that a run that is stopped or dies can go on from where it was with
+ -resume. Every match stream depends only on the seed, the tournament and the
+ players, so all a run needs to go on is the number of tournaments it has
+ added up so far and their TournamentStats, and, with -record, how much of
+ the record file belongs to them. A resumed run ends with exactly the same
+ results as a run that was never stopped. A finished run can also be resumed
+ with more tournaments, to extend it.
+
+ A sweep keeps one entry per configuration, each with the progress of that
+ configuration's tournaments; the pass over the rest of the field is played
+ again when a sweep is resumed.
+
+ The runner saves after a chunk is added, once interval has passed since the
+ last save, and at the end of every run, so checkpoints cost nothing while the
+ workers play. The file is written to a temporary file, synced and moved into
+ place, so a checkpoint is always whole:
+   int    MAGIC
+   int    VERSION
+   long   seed
+   long   roster (see ShardQueue)
+   int    number of entries
+   then for each entry:
+     UTF    label: "run", or the configuration of a sweep
+     int    tournaments added up
+     long   length of the record file, or -1
+     the TournamentStats, as written by TournamentStats.write() */
+
+class Checkpoint {
+	static final int MAGIC = 0x3350444b; // "3PDK"
+	static final int VERSION = 2;
+
+	static class Entry {
+		final int next;
+		final long recordLength;
+		final TournamentStats stats;
+
+		Entry(int next, long recordLength, TournamentStats stats) {
+			this.next = next;
+			this.recordLength = recordLength;
+			this.stats = stats;
+		}
+	}
+
+	final Path path;
+	final long seed, roster;
+	final long interval; // nanoseconds between saves
+	private long saved = System.nanoTime();
+	private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+	Checkpoint(Path path, ThreePrisonersDilemma game, double seconds) throws IOException {
+		this.path = path;
+		seed = game.seed;
+		roster = ShardQueue.roster(game);
+		interval = (long) (seconds * 1e9);
+	}
+
+	// Reads the file back, which must be from a run with the same seed and
+	// strategies. Returns false if there is no file yet.
+	boolean load() throws IOException {
+		if (!Files.exists(path)) return false;
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a checkpoint: " + path);
+			if (in.readLong() != seed || in.readLong() != roster)
+				throw new RuntimeException("The checkpoint " + path + " is from a run with another seed or other strategies");
+			for (int e = in.readInt(); e > 0; e--) {
+				String label = in.readUTF();
+				byte[] entry = new byte[in.readInt()];
+				in.readFully(entry);
+				entries.put(label, entry);
+			}
+		}
+		return true;
+	}
+
+	// Where the run with the given label had got to, or null if it had not
+	// started.
+	Entry get(String label) throws IOException {
+		byte[] entry = entries.get(label);
+		if (entry == null) return null;
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry))) {
+			return new Entry(in.readInt(), in.readLong(), TournamentStats.read(in));
+		}
+	}
+
+	boolean due() {
+		return System.nanoTime() - saved >= interval;
+	}
+
+	// Saves the progress of the run with the given label. resultStream, if
+	// not null, is flushed to disk first.
+	void save(String label, TournamentStats stats, ResultStream resultStream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(stats.tournaments);
+			out.writeLong(resultStream == null ? -1 : resultStream.sync());
+			stats.write(out);
+		}
+		entries.put(label, bytes.toByteArray());
+
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(temp.toFile());
+				DataOutputStream out = new DataOutputStream(file)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(seed);
+			out.writeLong(roster);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().length);
+				out.write(entry.getValue());
+			}
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		saved = System.nanoTime();
+	}
+}
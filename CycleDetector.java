@@ -0,0 +1,110 @@
+/* 
+ Finds the point at which a match between deterministic players starts
+ repeating itself, and skips over the rest of it.
+ 
+ Before each round the detector asks every player for its cycleState(),
+ through Player.cycleKey(), which leaves out states a subclass inherited
+ from a strategy that plays differently. Once
+ all three players give the same states as they did L rounds earlier, the
+ match has entered a cycle of length L: every later round repeats the round
+ L before it, and so do the scores. If the cycle can run to the end of the
+ match, the remaining scores are worked out in closed form. If one of the
+ players changes behaviour at some fixed round (its cycleHorizon()), the
+ cycle's plays are copied into the histories up to that round instead, and
+ the match carries on from there as normal. */
+
+class CycleDetector {
+	// Only cycles up to this long are looked for.
+	static final int MAX_CYCLE = 16;
+	
+	private long[] keyA = new long[0], keyB = new long[0], keyC = new long[0];
+	private int[] scoreA = new int[0], scoreB = new int[0], scoreC = new int[0]; // scores before each round
+	private boolean[] known = new boolean[0];
+	private Player A, B, C;
+	private int horizon;
+	
+	// Set by check(): the scores of the rounds it skipped, and whether it
+	// skipped any at all.
+	int extraA, extraB, extraC;
+	boolean fastForwarded;
+	
+	void start(Player A, Player B, Player C, int rounds) {
+		if (known.length < rounds) {
+			keyA = new long[rounds];
+			keyB = new long[rounds];
+			keyC = new long[rounds];
+			scoreA = new int[rounds];
+			scoreB = new int[rounds];
+			scoreC = new int[rounds];
+			known = new boolean[rounds];
+		}
+		this.A = A;
+		this.B = B;
+		this.C = C;
+		horizon = Math.min(A.cycleLimit(), Math.min(B.cycleLimit(), C.cycleLimit()));
+		extraA = extraB = extraC = 0;
+		fastForwarded = false;
+	}
+	
+	// Called before round i is played. Returns i if the match should simply
+	// go on; rounds if the rest of the match has been scored in closed form
+	// (see extraA etc.); or a later round to carry on from, after copying the
+	// cycle into the histories up to that round.
+	int check(int i, int rounds, History a, History b,
+			History c) {
+		scoreA[i] = a.score();
+		scoreB[i] = b.score();
+		scoreC[i] = c.score();
+		long ka = A.cycleKey(i, a, b, c);
+		long kb = ka == Player.NO_CYCLE_STATE ? ka : B.cycleKey(i, b, c, a);
+		long kc = kb == Player.NO_CYCLE_STATE ? kb : C.cycleKey(i, c, a, b);
+		known[i] = kc != Player.NO_CYCLE_STATE;
+		if (!known[i]) return i;
+		keyA[i] = ka;
+		keyB[i] = kb;
+		keyC[i] = kc;
+		
+		int j = i-1;
+		for (; j >= Math.max(i-MAX_CYCLE, 0); j--)
+			if (known[j] && keyA[j] == ka && keyB[j] == kb && keyC[j] == kc) break;
+		if (j < Math.max(i-MAX_CYCLE, 0)) return i;
+		int length = i - j;
+		
+		if (horizon >= rounds) {
+			int cycles = (rounds - i) / length, rest = (rounds - i) % length;
+			extraA = cycles * (scoreA[i] - scoreA[j]) + scoreA[j+rest] - scoreA[j];
+			extraB = cycles * (scoreB[i] - scoreB[j]) + scoreB[j+rest] - scoreB[j];
+			extraC = cycles * (scoreC[i] - scoreC[j]) + scoreC[j+rest] - scoreC[j];
+			fastForwarded = true;
+			return rounds;
+		}
+		
+		// Replay whole cycles only, so that the players' cycle states at the
+		// end are the same as they are now. Their fields are left as they
+		// are, apart from round numbers, which skipRounds() moves on. Past
+		// the horizon, just play on.
+		if (i >= horizon) return i;
+		int end = i + (horizon - i) / length * length;
+		for (int r=i; r<end; r++) {
+			int from = r - length;
+			int playA = a.get(from), playB = b.get(from), playC = c.get(from);
+			scoreA[r] = a.score();
+			scoreB[r] = b.score();
+			scoreC[r] = c.score();
+			keyA[r] = keyA[from];
+			keyB[r] = keyB[from];
+			keyC[r] = keyC[from];
+			known[r] = known[from];
+			a.append(playA, ThreePrisonersDilemma.PAYOFF[playA<<2 | playB<<1 | playC]);
+			b.append(playB, ThreePrisonersDilemma.PAYOFF[playB<<2 | playC<<1 | playA]);
+			c.append(playC, ThreePrisonersDilemma.PAYOFF[playC<<2 | playA<<1 | playB]);
+		}
+		if (end > i) {
+			A.skipRounds(end - i);
+			B.skipRounds(end - i);
+			C.skipRounds(end - i);
+			fastForwarded = true;
+		}
+		return end;
+	}
+}
@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ An evolutionary tournament: each strategy has a share of an (infinite)
+ population, every player meets two opponents drawn at random from the
+ population, and from one generation to the next each share grows in
+ proportion to how well its strategy scores against the current mix
+ (discrete replicator dynamics):
+
+   x'[i] = x[i] * f[i] / sum over s of x[s] * f[s]
+   f[i]  = sum over j, k of x[j] * x[k] * E[i][j][k]
+
+ E[i][j][k] is the expected score of strategy i in a match against j and k.
+ It is worked out once, before the first generation, by averaging the matches
+ of each triple over a number of tournaments' worth of match streams; the
+ tournaments are played in parallel, and the MatchCache and MatchStore are
+ used as in a normal run. After that a generation is just two contractions of
+ the tensor with the shares, N^3 multiplications, so hundreds of generations
+ take no time at all. */
+
+class EcologicalTournament {
+	final ThreePrisonersDilemma game;
+	final int numPlayers;
+	double[] expected; // expected[(i*numPlayers + j)*numPlayers + k] is E[i][j][k]
+
+	EcologicalTournament(ThreePrisonersDilemma game) {
+		this.game = game;
+		numPlayers = game.registry.size();
+	}
+
+	// Averages every triple's matches over the given number of tournaments. A
+	// player's score is the same whichever seat each of its opponents is in,
+	// and where a strategy meets a copy of itself, its seats are averaged.
+	void computeTensor(int tournaments, int threads) throws InterruptedException {
+		int triples = numPlayers * (numPlayers+1) * (numPlayers+2) / 6;
+		double[] sums = new double[3 * triples];
+		ExecutorService pool = ThreePrisonersDilemma.workerPool(threads);
+		ThreadLocal<ThreePrisonersDilemma> instance = ThreadLocal.withInitial(game::copySettings);
+		try {
+			List<Future<double[]>> chunks = new ArrayList<>();
+			for (int start = 0; start < tournaments; start += game.chunkSize()) {
+				int first = start, last = Math.min(start + game.chunkSize(), tournaments);
+				chunks.add(pool.submit(() -> instance.get().sumTriples(first, last)));
+			}
+			// In order, so that the sums come out the same for any number of threads
+			for (Future<double[]> chunk : chunks) {
+				double[] done;
+				try {
+					done = game.await(chunk);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Tournament worker failed", e.getCause());
+				}
+				for (int s=0; s<sums.length; s++)
+					sums[s] += done[s];
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		double[] total = new double[numPlayers * numPlayers * numPlayers];
+		int[] count = new int[total.length];
+		int triple = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			double a = sums[3*triple] / tournaments, b = sums[3*triple+1] / tournaments, c = sums[3*triple+2] / tournaments;
+			add(total, count, i, j, k, a);
+			add(total, count, j, i, k, b);
+			add(total, count, k, i, j, c);
+			triple++;
+		}
+		expected = new double[total.length];
+		for (int e=0; e<total.length; e++)
+			expected[e] = total[e] / count[e];
+	}
+
+	private void add(double[] total, int[] count, int i, int j, int k, double score) {
+		int jk = (i*numPlayers + j)*numPlayers + k, kj = (i*numPlayers + k)*numPlayers + j;
+		total[jk] += score;
+		count[jk]++;
+		if (kj != jk) {
+			total[kj] += score;
+			count[kj]++;
+		}
+	}
+
+	// The expected score of each strategy against two opponents drawn from
+	// the given population.
+	double[] fitness(double[] shares) {
+		double[] fitness = new double[numPlayers];
+		for (int i=0; i<numPlayers; i++) {
+			double f = 0;
+			int row = i * numPlayers * numPlayers;
+			for (int j=0; j<numPlayers; j++, row += numPlayers) {
+				double against = 0;
+				for (int k=0; k<numPlayers; k++)
+					against += expected[row + k] * shares[k];
+				f += shares[j] * against;
+			}
+			fitness[i] = f;
+		}
+		return fitness;
+	}
+
+	// The shares of every generation, starting from equal shares.
+	double[][] evolve(int generations) {
+		double[][] trajectory = new double[generations + 1][numPlayers];
+		Arrays.fill(trajectory[0], 1.0 / numPlayers);
+		for (int g=1; g<=generations; g++) {
+			double[] shares = trajectory[g-1];
+			double[] fitness = fitness(shares);
+			double mean = 0;
+			for (int i=0; i<numPlayers; i++)
+				mean += shares[i] * fitness[i];
+			for (int i=0; i<numPlayers; i++)
+				trajectory[g][i] = shares[i] * fitness[i] / mean;
+		}
+		return trajectory;
+	}
+
+	// A table of the shares, in percent, at about twenty generations, followed
+	// by the strategies from the largest final share down.
+	void print(double[][] trajectory, PrintStream out) {
+		int generations = trajectory.length - 1;
+		int step = Math.max(1, generations / 20);
+		out.print("Generation");
+		for (int p=0; p<numPlayers; p++)
+			out.printf(" %6d", p);
+		out.println();
+		for (int g=0; g<=generations; g += step)
+			printRow(g, trajectory[g], out);
+		if (generations % step != 0)
+			printRow(generations, trajectory[generations], out);
+		out.println();
+		double[] last = trajectory[generations];
+		Integer[] order = new Integer[numPlayers];
+		for (int p=0; p<numPlayers; p++)
+			order[p] = p;
+		Arrays.sort(order, (p, q) -> Double.compare(last[q], last[p]));
+		out.printf("%3s %-28s %9s%n", "", "Player", "Share %");
+		for (int p : order)
+			out.printf("%3d %-28s %9.4f%n", p, game.registry.name(p), 100 * last[p]);
+	}
+
+	private void printRow(int generation, double[] shares, PrintStream out) {
+		out.printf("%10d", generation);
+		for (int p=0; p<numPlayers; p++)
+			out.printf(" %6.2f", 100 * shares[p]);
+		out.println();
+	}
+
+	// Every generation's shares as CSV, one column per strategy.
+	void write(double[][] trajectory, Path path) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+			out.print("generation");
+			for (int p=0; p<numPlayers; p++)
+				out.print("," + game.registry.name(p));
+			out.println();
+			for (int g=0; g<trajectory.length; g++) {
+				out.print(g);
+				for (int p=0; p<numPlayers; p++)
+					out.print("," + trajectory[g][p]);
+				out.println();
+			}
+		}
+	}
+}
@@ -0,0 +1,232 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ A strategy that runs as a separate process, in any language, and talks to
+ the tournament over its stdin and stdout (see -agent). Its stderr goes to
+ the tournament's.
+
+ The tournament does not ask for one move at a time. A worker plays all the
+ matches of a chunk of tournaments that involve agents side by side, a round
+ at a time (see ThreePrisonersDilemma.playAgents), so each round it sends an
+ agent a single frame with a request for every match it is in, and reads
+ back one reply with all the moves. Thousands of matches share one pipe, and
+ there is one round trip per round of play, not per move.
+
+ An agent may start answering a frame before it has read all of it, as
+ AgentHost does. A frame can be far larger than a pipe holds, so if nothing
+ read the replies until the whole frame was written, such an agent would
+ block on a full stdout, stop reading, and the tournament would block
+ writing to it. Each process therefore has a reader thread that takes the
+ replies off its stdout as they come and hands them to receive().
+
+ Each player in a match, one per seat the agent holds, has an id, picked by
+ the tournament and unique within the process. The agent keeps the histories
+ of its players itself; every request only carries the plays of the round
+ before.
+
+ All numbers are big-endian, as written by DataOutputStream. Once started,
+ the agent reads
+   int    MAGIC
+   int    VERSION
+ and answers
+   int    MAGIC
+   int    VERSION
+   UTF    the name of its strategy (a short big-endian length, then UTF-8)
+ Then the tournament sends frames, each starting with a byte:
+   'R'    a round:
+          int    players starting a match
+            int    id
+            long   seed for the player's random numbers
+          int    players whose match is over, which can be forgotten
+            int    id
+          int    moves wanted
+            int    id
+            byte   plays of the round before, as in MarkovModel: (my play)<<2 |
+                   (first opponent's play)<<1 | (second opponent's play);
+                   0 in the first round of a match
+   'Q'    the end of the run; the agent should exit
+ and the agent answers every 'R' frame with
+   int    number of moves, the same as asked for
+   byte   the move for each request, in order: 0 to cooperate, 1 to defect
+ A player's opponents are in the same order as for selectAction: the player
+ in seat A has B and C, B has C and A, and C has A and B.
+
+ AgentHost is an agent written this way, which plays any Player subclass. */
+
+class ExternalAgent {
+	static final int MAGIC = 0x33504441; // "3PDA"
+	static final int VERSION = 1;
+
+	final String name;
+	private final Process process;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+
+	private final ByteArrayOutputStream starts = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream ends = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream moves = new ByteArrayOutputStream();
+	private final DataOutputStream startData = new DataOutputStream(starts);
+	private final DataOutputStream endData = new DataOutputStream(ends);
+	private final DataOutputStream moveData = new DataOutputStream(moves);
+	private int startCount = 0, endCount = 0, moveCount = 0;
+	private int nextId = 0;
+
+	// The number of moves asked for in each frame sent, for the reader, and
+	// the replies it has read: the moves, or the IOException it failed with.
+	private final BlockingQueue<Integer> asked = new LinkedBlockingQueue<>();
+	private final BlockingQueue<Object> replies = new LinkedBlockingQueue<>();
+
+	ExternalAgent(List<String> command) throws IOException {
+		process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 1 << 16));
+		in = new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.flush();
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("not a version " + VERSION + " agent");
+			name = in.readUTF();
+		} catch (IOException e) {
+			process.destroy();
+			throw new IOException("Agent " + String.join(" ", command) + " did not start: " + e.getMessage(), e);
+		}
+		Thread reader = new Thread(this::readReplies, "agent " + name);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	// Runs on the reader thread until the agent is closed or stops answering.
+	private void readReplies() {
+		try {
+			while (true) {
+				int expected = asked.take();
+				if (expected < 0) return; // closed
+				int count = in.readInt();
+				if (count != expected)
+					throw new IOException("Agent " + name + " sent " + count + " moves instead of " + expected);
+				byte[] actions = new byte[count];
+				in.readFully(actions);
+				replies.put(actions);
+			}
+		} catch (EOFException e) {
+			replies.add(new EOFException("Agent " + name + " stopped answering"));
+		} catch (IOException e) {
+			replies.add(e);
+		} catch (InterruptedException e) {
+			// not interrupted by anyone
+		}
+	}
+
+	// A new player, for the next frame. Returns its id.
+	int start(long seed) throws IOException {
+		int id = nextId++;
+		startData.writeInt(id);
+		startData.writeLong(seed);
+		startCount++;
+		return id;
+	}
+
+	void end(int id) throws IOException {
+		endData.writeInt(id);
+		endCount++;
+	}
+
+	// Asks for the next move of a player, in the next frame.
+	void ask(int id, int plays) throws IOException {
+		moveData.writeInt(id);
+		moveData.writeByte(plays);
+		moveCount++;
+	}
+
+	// Sends the frame. The agent can work on it while the caller does other
+	// things, until it calls receive().
+	void send() throws IOException {
+		asked.add(moveCount);
+		out.writeByte('R');
+		out.writeInt(startCount);
+		starts.writeTo(out);
+		out.writeInt(endCount);
+		ends.writeTo(out);
+		out.writeInt(moveCount);
+		moves.writeTo(out);
+		out.flush();
+		starts.reset();
+		ends.reset();
+		moves.reset();
+		startCount = endCount = moveCount = 0;
+	}
+
+	// The moves asked for in the last frame, in the order they were asked.
+	byte[] receive() throws IOException {
+		Object reply;
+		try {
+			reply = replies.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for agent " + name);
+		}
+		if (reply instanceof IOException) {
+			replies.add(reply); // for any later call
+			throw new IOException(((IOException) reply).getMessage(), (IOException) reply);
+		}
+		byte[] actions = (byte[]) reply;
+		for (byte action : actions)
+			if (action != 0 && action != 1)
+				throw new IOException("Agent " + name + " played " + action);
+		return actions;
+	}
+
+	void close() throws IOException {
+		asked.add(-1);
+		try {
+			out.writeByte('Q');
+			out.close();
+		} catch (IOException e) {
+			// it has gone already
+		}
+		process.destroy();
+	}
+
+	static List<String> parseCommand(String command) {
+		return Arrays.asList(command.trim().split("\\s+"));
+	}
+	
+	// Starts the agent once to learn its name, and registers it. The command
+	// is split at spaces.
+	static int register(StrategyRegistry registry, String command) throws IOException {
+		ExternalAgent agent = new ExternalAgent(parseCommand(command));
+		agent.close();
+		return registry.register(agent.name, game -> new AgentPlayer(command));
+	}
+	
+	/* What the registry makes for an agent. It only stands for the agent's
+	 seat: the tournament sees that it is an agent and plays its matches with
+	 playAgents(). The command is a field so that it is part of the strategy's
+	 fingerprint in the MatchStore; a change to the agent's program that keeps
+	 the same command line is not noticed. */
+	
+	static class AgentPlayer extends Player {
+		final String command;
+		
+		AgentPlayer(String command) {
+			this.command = command;
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1,
+				History oppHistory2) {
+			throw new RuntimeException("Agent " + command + " only plays in batches");
+		}
+	}
+}
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongToDoubleFunction;
+
+/*
+ A strategy written as a finite-state machine: in each state it defects with
+ a fixed probability, and after every round it moves to a new state picked by
+ the joint plays of the round, packed as in MarkovModel:
+ (my play)<<2 | (first opponent's play)<<1 | (second opponent's play).
+ Some rounds can also have a fixed play, whatever the state.
+
+ A strategy describes its machine with compile(), giving the start state, the
+ probability of defecting in a state and the transition, with states as any
+ long values it finds convenient (usually a few packed bits). compile() finds
+ every state that can be reached and numbers them, so the machine becomes
+ two arrays: next[state<<3 | plays] and the defection threshold of each state.
+
+ play() uses these arrays to run a batch of matches between the same three
+ machines in lockstep: round by round, every match in the batch looks up its
+ players' plays and next states in the same small tables, with no virtual
+ calls and no histories, so the loop over the batch is straight-line array
+ code. */
+
+class FsmTable {
+	static final int MAX_STATES = 1 << 12;
+
+	@FunctionalInterface
+	interface Transition {
+		long next(long state, int myPlay, int oppPlay1, int oppPlay2);
+	}
+
+	final int[] next;       // next[state<<3 | plays], the state after a round
+	final int[] threshold;  // defect when the top 24 bits of a random long are below this
+	byte[] forced = {};     // forced[round], the play in that round if not -1
+
+	private FsmTable(int[] next, int[] threshold) {
+		this.next = next;
+		this.threshold = threshold;
+	}
+
+	int states() {
+		return threshold.length;
+	}
+
+	static FsmTable compile(long start, LongToDoubleFunction defect, Transition transition) {
+		Map<Long, Integer> ids = new HashMap<>();
+		List<Long> states = new ArrayList<>();
+		ids.put(start, 0);
+		states.add(start);
+		List<Integer> next = new ArrayList<>();
+		for (int s=0; s<states.size(); s++) {
+			for (int plays=0; plays<8; plays++) {
+				long to = transition.next(states.get(s), plays >> 2, (plays >> 1) & 1, plays & 1);
+				Integer id = ids.get(to);
+				if (id == null) {
+					if (states.size() == MAX_STATES)
+						throw new RuntimeException("State machine has more than " + MAX_STATES + " states");
+					id = states.size();
+					ids.put(to, id);
+					states.add(to);
+				}
+				next.add(id);
+			}
+		}
+		int[] table = new int[next.size()];
+		for (int t=0; t<table.length; t++)
+			table[t] = next.get(t);
+		int[] threshold = new int[states.size()];
+		for (int s=0; s<threshold.length; s++)
+			threshold[s] = (int) Math.round(defect.applyAsDouble(states.get(s)) * (1 << 24));
+		return new FsmTable(table, threshold);
+	}
+
+	// Plays action in the given round, whatever the state.
+	FsmTable force(int round, int action) {
+		if (round >= forced.length) {
+			int length = forced.length;
+			forced = Arrays.copyOf(forced, round + 1);
+			Arrays.fill(forced, length, round + 1, (byte) -1);
+		}
+		forced[round] = (byte) action;
+		return this;
+	}
+
+	private int forced(int round) {
+		return round < forced.length ? forced[round] : -1;
+	}
+
+	/* Plays one match between A, B and C for each entry of rounds, and returns
+	 their average payoffs per round, three to a match, in the same form as
+	 scoresOfMatch. seeds holds three seeds per match, one for each player's
+	 random numbers, which come from a SplitMix64 generator kept in a long.
+	 In a mirrored match (see -antithetic) every random number is flipped. */
+
+	static float[] play(FsmTable A, FsmTable B, FsmTable C, int[] rounds, long[] seeds, boolean[] mirrored) {
+		int matches = rounds.length;
+		int[] stateA = new int[matches], stateB = new int[matches], stateC = new int[matches];
+		int[] scoreA = new int[matches], scoreB = new int[matches], scoreC = new int[matches];
+		long[] randomA = new long[matches], randomB = new long[matches], randomC = new long[matches];
+		long[] flip = new long[matches];
+		int most = 0;
+		for (int m=0; m<matches; m++) {
+			flip[m] = mirrored[m] ? -1 : 0;
+			randomA[m] = seeds[3*m];
+			randomB[m] = seeds[3*m+1];
+			randomC[m] = seeds[3*m+2];
+			most = Math.max(most, rounds[m]);
+		}
+		int[] payoff = ThreePrisonersDilemma.PAYOFF;
+		for (int round=0; round<most; round++) {
+			int forcedA = A.forced(round), forcedB = B.forced(round), forcedC = C.forced(round);
+			for (int m=0; m<matches; m++) {
+				if (round >= rounds[m]) continue;
+				int a = stateA[m], b = stateB[m], c = stateC[m];
+				int playA = forcedA >= 0 ? forcedA : ((mix(randomA[m] += GOLDEN_GAMMA) ^ flip[m]) >>> 40) < A.threshold[a] ? 1 : 0;
+				int playB = forcedB >= 0 ? forcedB : ((mix(randomB[m] += GOLDEN_GAMMA) ^ flip[m]) >>> 40) < B.threshold[b] ? 1 : 0;
+				int playC = forcedC >= 0 ? forcedC : ((mix(randomC[m] += GOLDEN_GAMMA) ^ flip[m]) >>> 40) < C.threshold[c] ? 1 : 0;
+				int playsA = playA<<2 | playB<<1 | playC;
+				int playsB = playB<<2 | playC<<1 | playA;
+				int playsC = playC<<2 | playA<<1 | playB;
+				scoreA[m] += payoff[playsA];
+				scoreB[m] += payoff[playsB];
+				scoreC[m] += payoff[playsC];
+				stateA[m] = A.next[a<<3 | playsA];
+				stateB[m] = B.next[b<<3 | playsB];
+				stateC[m] = C.next[c<<3 | playsC];
+			}
+		}
+		float[] scores = new float[3 * matches];
+		for (int m=0; m<matches; m++) {
+			scores[3*m] = (float) scoreA[m] / rounds[m];
+			scores[3*m+1] = (float) scoreB[m] / rounds[m];
+			scores[3*m+2] = (float) scoreC[m] / rounds[m];
+		}
+		return scores;
+	}
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+/* 
+ The plays of one player in the current match. scoresOfMatch allocates one
+ buffer per player up front and appends to it after every round, instead of
+ copying the whole history each round. Strategies should only read from it,
+ and should not hold on to it after the match ends.
+ 
+ Since a play is a single bit, the buffer packs 64 rounds into each long,
+ with round i in bit i%64 of word i/64. Counting defections over a window,
+ or comparing two players' plays, is then a mask and a bitCount per word.
+ The buffer also keeps the player's score and current streak as it goes,
+ so strategies can read them in constant time instead of scanning the
+ whole history every round. */
+
+public final class History {
+	private static final int[] EMPTY = new int[0];
+	private final long[] bits;
+	private final int capacity;
+	private int length = 0;
+	private int defections = 0;
+	private int score = 0;
+	private int streak = 0;
+	private int[] snapshot = EMPTY;
+	
+	History(int capacity) {
+		this.capacity = capacity;
+		bits = new long[(capacity+63) >>> 6];
+	}
+	
+	// The action played in round i, for 0 <= i < length().
+	public int get(int i) {
+		return (int) (bits[i >>> 6] >>> i) & 1;
+	}
+	
+	public int length() {
+		return length;
+	}
+	
+	public int capacity() {
+		return capacity;
+	}
+	
+	// The number of times this player has defected so far.
+	public int defections() {
+		return defections;
+	}
+	
+	// The number of defections in the last k rounds (or in all of them, if
+	// fewer than k have been played).
+	public int defections(int k) {
+		return countBits(bits, null, Math.max(length-k, 0), length);
+	}
+	
+	public int cooperations() {
+		return length - defections;
+	}
+	
+	// The number of the last k rounds in which this player and the other
+	// one made the same play.
+	public int agreements(History other, int k) {
+		int from = Math.max(length-k, 0);
+		return length - from - countBits(bits, other.bits, from, length);
+	}
+	
+	// The total payoff this player has received so far.
+	public int score() {
+		return score;
+	}
+	
+	// How many rounds in a row, up to the last one, this player has made
+	// the same play as in the last round.
+	public int streak() {
+		return streak;
+	}
+	
+	// A copy of the plays so far, for strategies that want an int[].
+	// The copy is shared until the next append.
+	public int[] toArray() {
+		if (snapshot.length != length) {
+			snapshot = new int[length];
+			for (int i=0; i<length; i++)
+				snapshot[i] = get(i);
+		}
+		return snapshot;
+	}
+	
+	void append(int action, int payoff) {
+		if (length > 0 && get(length-1) == action)
+			streak++;
+		else
+			streak = 1;
+		bits[length >>> 6] |= (long) action << length;
+		length++;
+		defections += action;
+		score += payoff;
+	}
+	
+	void clear() {
+		Arrays.fill(bits, 0L);
+		length = 0;
+		defections = 0;
+		score = 0;
+		streak = 0;
+		snapshot = EMPTY;
+	}
+	
+	// The number of set bits in rounds from (inclusive) to to (exclusive)
+	// of a, or of a XOR b when b is given.
+	private static int countBits(long[] a, long[] b, int from, int to) {
+		int count = 0;
+		for (int w = from >>> 6; w <= (to-1) >>> 6 && from < to; w++) {
+			long word = b == null ? a[w] : a[w] ^ b[w];
+			int lo = Math.max(from - (w << 6), 0);
+			int hi = Math.min(to - (w << 6), 64);
+			long mask = (hi == 64 ? -1L : (1L << hi) - 1) & (-1L << lo);
+			count += Long.bitCount(word & mask);
+		}
+		return count;
+	}
+}
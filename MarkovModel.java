@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+/* 
+ A strategy whose next play depends only on the plays of the last round.
+ first is the probability of defecting in the first round, and next[s] the
+ probability of defecting after a round in which the joint plays were s,
+ packed as (my play)<<2 | (first opponent's play)<<1 | (second opponent's).
+ 
+ A match between three such players is a Markov chain on the 8 possible
+ joint plays, so its expected score can be computed exactly, by carrying the
+ probability of each joint play forward one round at a time, instead of
+ being estimated by playing it many times. */
+
+class MarkovModel {
+	final double weight;  // probability that the player follows this model for the whole match
+	final double first;
+	final double[] next;
+	
+	MarkovModel(double weight, double first, double[] next) {
+		this.weight = weight;
+		this.first = first;
+		this.next = next;
+	}
+	
+	// Defects with probability p every round.
+	static MarkovModel constant(double weight, double p) {
+		return new MarkovModel(weight, p, new double[] {p, p, p, p, p, p, p, p});
+	}
+	
+	// Cooperates first, then defects with probability probe, and otherwise
+	// copies the last play of an opponent picked at random.
+	static MarkovModel titForTat(double probe) {
+		double[] next = new double[8];
+		for (int s=0; s<8; s++)
+			next[s] = probe + (1 - probe) * (((s >> 1) & 1) + (s & 1)) / 2.0;
+		return new MarkovModel(1, 0, next);
+	}
+	
+	// The expected average payoff per round of each player in a match of the
+	// given length, in the same form as scoresOfMatch returns. Players with
+	// more than one model are averaged over every combination of models.
+	static float[] expectedScores(MarkovModel[] a, MarkovModel[] b, MarkovModel[] c, int rounds) {
+		double[] total = new double[3];
+		for (MarkovModel ma : a) for (MarkovModel mb : b) for (MarkovModel mc : c) {
+			double weight = ma.weight * mb.weight * mc.weight;
+			if (weight == 0) continue;
+			double[] scores = expectedTotals(ma, mb, mc, rounds);
+			for (int p=0; p<3; p++)
+				total[p] += weight * scores[p];
+		}
+		return new float[] {(float) (total[0]/rounds), (float) (total[1]/rounds), (float) (total[2]/rounds)};
+	}
+	
+	// Expected total payoffs over the match, for one model per player.
+	static double[] expectedTotals(MarkovModel a, MarkovModel b, MarkovModel c, int rounds) {
+		double[] dist = new double[8];
+		double[] nextDist = new double[8];
+		for (int s=0; s<8; s++)
+			dist[s] = chance(a.first, s >> 2) * chance(b.first, (s >> 1) & 1) * chance(c.first, s & 1);
+		double[] totals = new double[3];
+		for (int r=0; r<rounds; r++) {
+			for (int s=0; s<8; s++) {
+				if (dist[s] == 0) continue;
+				int pa = s >> 2, pb = (s >> 1) & 1, pc = s & 1;
+				totals[0] += dist[s] * ThreePrisonersDilemma.PAYOFF[pa<<2 | pb<<1 | pc];
+				totals[1] += dist[s] * ThreePrisonersDilemma.PAYOFF[pb<<2 | pc<<1 | pa];
+				totals[2] += dist[s] * ThreePrisonersDilemma.PAYOFF[pc<<2 | pa<<1 | pb];
+			}
+			if (r == rounds-1) break;
+			Arrays.fill(nextDist, 0);
+			for (int s=0; s<8; s++) {
+				if (dist[s] == 0) continue;
+				int pa = s >> 2, pb = (s >> 1) & 1, pc = s & 1;
+				// Each player sees the joint play from its own seat, as in scoresOfMatch.
+				double da = a.next[pa<<2 | pb<<1 | pc];
+				double db = b.next[pb<<2 | pc<<1 | pa];
+				double dc = c.next[pc<<2 | pa<<1 | pb];
+				for (int t=0; t<8; t++)
+					nextDist[t] += dist[s] * chance(da, t >> 2) * chance(db, (t >> 1) & 1) * chance(dc, t & 1);
+			}
+			double[] swap = dist;
+			dist = nextDist;
+			nextDist = swap;
+		}
+		return totals;
+	}
+	
+	// The probability of playing action, given the probability of defecting.
+	private static double chance(double defect, int action) {
+		return action == 1 ? defect : 1 - defect;
+	}
+}
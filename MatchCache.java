@@ -0,0 +1,38 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* 
+ Results of matches between deterministic players. When all three players of a
+ triple act the same way every time, the match only depends on the triple and
+ on the number of rounds, so it only needs to be played once per round count.
+ The cache is shared by all the worker threads; the scores stored in it are
+ never modified after they are put in. */
+
+class MatchCache {
+	private final int numPlayers;
+	private final int minRounds;
+	private final int maxRounds;
+	private final AtomicReferenceArray<float[]> scores;
+	
+	MatchCache(int numPlayers, int minRounds, int maxRounds) {
+		this.numPlayers = numPlayers;
+		this.minRounds = minRounds;
+		this.maxRounds = maxRounds;
+		scores = new AtomicReferenceArray<>(numPlayers * numPlayers * numPlayers * (maxRounds - minRounds + 1));
+	}
+	
+	// The scores of players i, j and k in a match of the given length, or null
+	// if that match has not been played yet.
+	float[] get(int i, int j, int k, int rounds) {
+		if (rounds < minRounds || rounds > maxRounds) return null;
+		return scores.get(index(i, j, k, rounds));
+	}
+	
+	void put(int i, int j, int k, int rounds, float[] result) {
+		if (rounds < minRounds || rounds > maxRounds) return;
+		scores.set(index(i, j, k, rounds), result);
+	}
+	
+	private int index(int i, int j, int k, int rounds) {
+		return ((i * numPlayers + j) * numPlayers + k) * (maxRounds - minRounds + 1) + rounds - minRounds;
+	}
+}
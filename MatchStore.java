@@ -0,0 +1,316 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ Match results kept on disk between runs, so that a run only plays the matches
+ that have changed since the last one: after adding or editing one strategy,
+ only the triples that include it are played again.
+
+ Each strategy has a fingerprint made from its name, the class files of its
+ class and superclasses, and the values of its fields when it is created, so
+ a strategy whose code or parameters change gets a new fingerprint and its
+ old results are no longer found. Code the strategy uses from other classes
+ is not part of the fingerprint, apart from History. The engine's own code is
+ covered by ThreePrisonersDilemma.ENGINE_VERSION, and by the class files of
+ MarkovModel and FsmTable when -exact and -fsm use them. Class files hold line
+ numbers, so editing the lines above a strategy in the same source file also
+ changes its fingerprint, unless it is compiled with -g:none.
+
+ A triple is stored in one of two ways. Matches that go through the MatchCache
+ only depend on the number of rounds, so they are stored by round count, in a
+ file that does not depend on the seed either:
+   int    MAGIC
+   int    VERSION
+   int    fewest rounds
+   int    most rounds
+   then for each number of rounds:
+     byte   1 if the match has been played, else 0
+     float  score of each of the three players
+ All other matches are stored by tournament, in a file for the seed and the
+ way the rounds are drawn (see -rounds):
+   int    MAGIC
+   int    VERSION
+   int    number of tournaments stored, from tournament 0
+   then for each tournament:
+     float  score of each of the three players
+ A later run with more tournaments plays only the tournaments that are not
+ stored yet. Files are written to a temporary file first and then moved into
+ place, so a run that is killed never leaves a half-written file behind.
+
+ The scores by tournament are not held on the heap, as a long run has far
+ more of them than it has memory for. A triple's stored file is mapped into
+ memory when its scores are first asked for, and its new scores go straight
+ into a mapped temporary file, in the same layout, that save() moves into
+ place. Triples that are never played by tournament take no space at all. */
+
+class MatchStore {
+	static final int MAGIC = 0x3350444d; // "3PDM"
+	static final int VERSION = 1;
+
+	private final Path dir;
+	private final int numPlayers;
+	private final int tournaments;
+	private final long[] byRounds;  // file key of each triple when stored by rounds
+	private final long[] byTournament; // file key of each triple when stored by tournament
+	private final AtomicReferenceArray<MappedByteBuffer> stored; // each triple's file as on disk
+	private final AtomicReferenceArray<MappedByteBuffer> written; // and as it is being written
+	private final int[] count;      // tournaments of each triple that were on disk
+	private final boolean[] played; // triples played by tournament in this run
+	private int loaded = 0;
+
+	MatchStore(Path dir, ThreePrisonersDilemma game, int tournaments) throws IOException {
+		this.dir = dir;
+		this.tournaments = tournaments;
+		if (offset(tournaments) > Integer.MAX_VALUE)
+			throw new RuntimeException("-store can keep at most " + (Integer.MAX_VALUE - 12) / 12 + " tournaments");
+		numPlayers = game.registry.size();
+		Files.createDirectories(dir);
+		long[] fingerprint = new long[numPlayers];
+		for (int p=0; p<numPlayers; p++)
+			fingerprint[p] = fingerprint(game.registry.create(p, game), game);
+		int triples = numPlayers * (numPlayers+1) * (numPlayers+2) / 6;
+		byRounds = new long[triples];
+		byTournament = new long[triples];
+		stored = new AtomicReferenceArray<>(triples);
+		written = new AtomicReferenceArray<>(triples);
+		count = new int[triples];
+		played = new boolean[triples];
+		int triple = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			byRounds[triple] = mix(mix(fingerprint[i], fingerprint[j]), fingerprint[k]);
+			byTournament[triple] = mix(byRounds[triple], game.seed);
+			if (game.samplingKey() != 0) byTournament[triple] = mix(byTournament[triple], game.samplingKey());
+			Path file = file(byTournament[triple], "games");
+			if (Files.exists(file)) {
+				try (DataInputStream in = open(file)) {
+					count[triple] = Math.min(in.readInt(), tournaments);
+				}
+				loaded++;
+			}
+			triple++;
+		}
+	}
+
+	// The number of triples found on disk by tournament.
+	int loaded() {
+		return loaded;
+	}
+
+	// The scores of the match played by the given triple in the given
+	// tournament, or null if it is not stored.
+	float[] get(int triple, int tournament) {
+		if (tournament >= count[triple]) return null;
+		MappedByteBuffer scores = stored.get(triple);
+		if (scores == null) scores = map(triple, false);
+		int at = (int) offset(tournament);
+		return new float[] { scores.getFloat(at), scores.getFloat(at + 4), scores.getFloat(at + 8) };
+	}
+
+	// Only called by the worker playing the tournament, so workers never write
+	// to the same place; the runner saves the scores once the workers are done.
+	void put(int triple, int tournament, float[] result) {
+		MappedByteBuffer scores = written.get(triple);
+		if (scores == null) scores = map(triple, true);
+		int at = (int) offset(tournament);
+		for (int s=0; s<3; s++)
+			scores.putFloat(at + 4*s, result[s]);
+		played[triple] = true;
+	}
+
+	// Where a tournament's scores start in a file stored by tournament.
+	private static long offset(int tournament) {
+		return 12 + 12L * tournament;
+	}
+
+	// Maps the triple's stored file, or a new temporary file with room for
+	// every tournament of the run, the first time a worker needs it.
+	private synchronized MappedByteBuffer map(int triple, boolean write) {
+		AtomicReferenceArray<MappedByteBuffer> buffers = write ? written : stored;
+		if (buffers.get(triple) != null) return buffers.get(triple);
+		Path file = file(byTournament[triple], "games");
+		try (FileChannel channel = write
+				? FileChannel.open(file.resolveSibling(file.getFileName() + ".tmp"), StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = write
+					? channel.map(FileChannel.MapMode.READ_WRITE, 0, offset(tournaments))
+					: channel.map(FileChannel.MapMode.READ_ONLY, 0, offset(count[triple]));
+			if (write) buffer.putInt(0, MAGIC).putInt(4, VERSION);
+			buffers.set(triple, buffer);
+			return buffer;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Puts the stored matches of the cached triples into the cache.
+	void load(MatchCache cache) throws IOException {
+		int triple = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			Path file = file(byRounds[triple++], "rounds");
+			if (!Files.exists(file)) continue;
+			try (DataInputStream in = open(file)) {
+				int minRounds = in.readInt(), maxRounds = in.readInt();
+				for (int rounds = minRounds; rounds <= maxRounds; rounds++) {
+					boolean played = in.readBoolean();
+					float[] result = { in.readFloat(), in.readFloat(), in.readFloat() };
+					if (played) cache.put(i, j, k, rounds, result);
+				}
+			}
+		}
+	}
+
+	// Writes out every triple that has more results than were on disk: the
+	// first count tournaments of each uncached triple, and the cached matches.
+	// The temporary file of a triple is filled in with the tournaments that
+	// were already stored, and its header written, before it is moved into
+	// place. Anything in it past the count is ignored when it is read.
+	void save(int count, MatchCache cache, int minRounds, int maxRounds) throws IOException {
+		count = Math.min(count, tournaments);
+		int triple = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			if (cache != null) saveRounds(byRounds[triple], cache, i, j, k, minRounds, maxRounds);
+			if (played[triple] && count > this.count[triple]) {
+				MappedByteBuffer scores = written.get(triple);
+				if (this.count[triple] > 0) {
+					ByteBuffer old = stored.get(triple);
+					if (old == null) old = map(triple, false);
+					scores.duplicate().position(12).put(old.duplicate().position(12));
+				}
+				scores.putInt(8, count);
+				scores.force();
+				replace(file(byTournament[triple], "games"));
+				stored.set(triple, null);
+				written.set(triple, null);
+				this.count[triple] = count;
+				played[triple] = false;
+			} else if (played[triple]) {
+				Path file = file(byTournament[triple], "games");
+				Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+			}
+			triple++;
+		}
+	}
+
+	private void saveRounds(long key, MatchCache cache, int i, int j, int k, int minRounds, int maxRounds) throws IOException {
+		boolean any = false;
+		for (int rounds = minRounds; rounds <= maxRounds && !any; rounds++)
+			any = cache.get(i, j, k, rounds) != null;
+		if (!any) return;
+		try (DataOutputStream out = create(file(key, "rounds"))) {
+			out.writeInt(minRounds);
+			out.writeInt(maxRounds);
+			for (int rounds = minRounds; rounds <= maxRounds; rounds++) {
+				float[] result = cache.get(i, j, k, rounds);
+				out.writeBoolean(result != null);
+				for (int s=0; s<3; s++)
+					out.writeFloat(result != null ? result[s] : 0);
+			}
+		}
+		replace(file(key, "rounds"));
+	}
+
+	private Path file(long key, String kind) {
+		return dir.resolve(String.format("%016x.%s", key, kind));
+	}
+
+	private DataInputStream open(Path file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			in.close();
+			throw new IOException("Not a match store file: " + file);
+		}
+		return in;
+	}
+
+	private DataOutputStream create(Path file) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		return out;
+	}
+
+	private void replace(Path file) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long mix(long a, long b) {
+		return new SplittableRandom(a ^ Long.rotateLeft(b, 29)).nextLong();
+	}
+
+	/* A hash of everything that decides how a strategy plays: its name, the
+	 class files from its class up to Player, the values of its number, boolean
+	 and String fields as created, the History class it reads the game from,
+	 the payoffs and the engine's version. In exact mode some matches are
+	 scored by their expected value instead of being played, and with -fsm
+	 some are played with other random numbers, so those results are kept
+	 apart, with the class files of the code that scores them. */
+
+	static long fingerprint(Player player, ThreePrisonersDilemma game) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not available", e);
+		}
+		digest.update(player.name().getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) (game.exact ? 1 : 0));
+		if (game.exact) digest.update(classFile(MarkovModel.class));
+		boolean fsm = game.fsm && ModelledPlayer.tableOf(player) != null;
+		digest.update((byte) (fsm ? 1 : 0));
+		if (fsm) digest.update(classFile(FsmTable.class));
+		digest.update(Arrays.toString(ThreePrisonersDilemma.PAYOFF).getBytes(StandardCharsets.UTF_8));
+		digest.update(("engine " + ThreePrisonersDilemma.ENGINE_VERSION).getBytes(StandardCharsets.UTF_8));
+		digest.update(classFile(History.class));
+		for (Class<?> c = player.getClass(); c != Object.class; c = c.getSuperclass()) {
+			digest.update(classFile(c));
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) continue;
+				// Only values that print the same way every run, so not the rng
+				Class<?> type = field.getType();
+				while (type.isArray()) type = type.getComponentType();
+				if (!type.isPrimitive() && type != String.class) continue;
+				try {
+					field.setAccessible(true);
+					String value = Arrays.deepToString(new Object[] { field.get(player) });
+					digest.update((field.getName() + "=" + value).getBytes(StandardCharsets.UTF_8));
+				} catch (IllegalAccessException | RuntimeException e) {
+					digest.update(field.getName().getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+		byte[] hash = digest.digest();
+		long fingerprint = 0;
+		for (int b=0; b<8; b++)
+			fingerprint = fingerprint << 8 | (hash[b] & 0xff);
+		return fingerprint;
+	}
+
+	private static byte[] classFile(Class<?> c) throws IOException {
+		try (InputStream in = c.getResourceAsStream("/" + c.getName().replace('.', '/') + ".class")) {
+			return in == null ? c.getName().getBytes(StandardCharsets.UTF_8) : in.readAllBytes();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ What a built-in strategy can tell the engine about its play in the engine's
+ own terms, so that some of its matches need not be played call by call.
+ This is not part of the Player API: Player and History are all a strategy
+ kept in a file of its own compiles against, and the models below are the
+ engine's business. So only the strategies built into the engine implement
+ this, and, as with Player's hooks, the engine only honours a model declared
+ next to the selectAction it describes (see Player.Hooks), asking through
+ modelsOf() and tableOf(). */
+
+interface ModelledPlayer {
+	// Strategies whose play depends only on the last round, and perhaps on
+	// a choice made once at the start of the match, can describe themselves
+	// as MarkovModels: one for each such choice, weighted by its probability.
+	// The tournament can then work out their expected scores exactly instead
+	// of sampling them (see -exact). Returns null if the player cannot.
+	default MarkovModel[] markovModels() {
+		return null;
+	}
+	
+	// Strategies that only need a bounded amount of memory can describe
+	// themselves as a state machine (see FsmTable), which the tournament
+	// plays in batches instead of calling selectAction (see -fsm). Returns
+	// null if the player cannot.
+	default FsmTable fsmTable() {
+		return null;
+	}
+	
+	static MarkovModel[] modelsOf(Player player) {
+		return player instanceof ModelledPlayer && player.hooks.markov ? ((ModelledPlayer) player).markovModels() : null;
+	}
+	
+	static FsmTable tableOf(Player player) {
+		return player instanceof ModelledPlayer && player.hooks.fsm ? ((ModelledPlayer) player).fsmTable() : null;
+	}
+}
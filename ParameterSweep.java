@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ Tries out different values for the numeric fields of one or more strategies,
+ such as tan_JamesCheeMin.NASTY_THRESHOLD, and ranks the configurations by how
+ well the tuned strategy does. A parameter is given as
+
+   Strategy.FIELD=from:to:step
+
+ and the configurations are either every combination of the values on that
+ grid, or a number of random points in the ranges. The strategies' defaults
+ are always tried as well, for comparison.
+
+ Every configuration plays the same tournaments, with the same match streams,
+ so differences between them come from the parameters and not from luck. The
+ matches that involve none of the tuned strategies come out the same for
+ every configuration, so they are played only once, before the sweep, and
+ each configuration then plays just the matches of the tuned strategies. */
+
+class ParameterSweep {
+
+	static class Parameter {
+		final String text;
+		final int strategy;
+		final String field;
+		final double from, to, step;
+		Field target;
+
+		Parameter(String text, int strategy, String field, double from, double to, double step) {
+			this.text = text;
+			this.strategy = strategy;
+			this.field = field;
+			this.from = from;
+			this.to = to;
+			this.step = step;
+		}
+
+		// The values on the grid, from and to included.
+		double[] values() {
+			if (step <= 0) throw new RuntimeException("Parameter " + text + " needs a positive step for a grid search");
+			int count = (int) Math.floor((to - from) / step + 1e-9) + 1;
+			double[] values = new double[Math.max(count, 1)];
+			for (int v=0; v<values.length; v++)
+				values[v] = from + v * step;
+			return values;
+		}
+	}
+
+	// One point in the parameter space; values is null for the defaults.
+	static class Candidate {
+		final double[] values;
+		TournamentStats stats;
+
+		Candidate(double[] values) {
+			this.values = values;
+		}
+	}
+
+	final ThreePrisonersDilemma game;
+	final List<Parameter> parameters = new ArrayList<>();
+	int samples = 0; // 0 for a grid search, otherwise the number of random points
+
+	ParameterSweep(ThreePrisonersDilemma game) {
+		this.game = game;
+	}
+
+	// Parses Strategy.FIELD=from:to[:step]. The step may only be left out for
+	// a random search.
+	void add(String text) {
+		int eq = text.indexOf('=');
+		int dot = text.lastIndexOf('.', eq);
+		if (eq < 0 || dot < 0) throw new RuntimeException("Expected Strategy.FIELD=from:to:step, got " + text);
+		String name = text.substring(0, dot);
+		int strategy = game.registry.id(name);
+		if (strategy < 0) throw new RuntimeException("No such strategy: " + name);
+		String[] range = text.substring(eq+1).split(":");
+		if (range.length < 2 || range.length > 3) throw new RuntimeException("Expected from:to:step in " + text);
+		double step = range.length == 3 ? Double.parseDouble(range[2]) : 0;
+		parameters.add(new Parameter(text, strategy, text.substring(dot+1, eq),
+				Double.parseDouble(range[0]), Double.parseDouble(range[1]), step));
+	}
+
+	List<Candidate> candidates() {
+		List<Candidate> candidates = new ArrayList<>();
+		candidates.add(new Candidate(null));
+		if (samples > 0) {
+			SplittableRandom random = new SplittableRandom(game.seed);
+			for (int s=0; s<samples; s++) {
+				double[] values = new double[parameters.size()];
+				for (int p=0; p<values.length; p++) {
+					Parameter parameter = parameters.get(p);
+					values[p] = parameter.from + (parameter.to - parameter.from) * random.nextDouble();
+				}
+				candidates.add(new Candidate(values));
+			}
+		} else {
+			// Every combination, the last parameter changing fastest
+			double[][] grid = new double[parameters.size()][];
+			for (int p=0; p<grid.length; p++)
+				grid[p] = parameters.get(p).values();
+			int[] index = new int[grid.length];
+			while (true) {
+				double[] values = new double[grid.length];
+				for (int p=0; p<grid.length; p++)
+					values[p] = grid[p][index[p]];
+				candidates.add(new Candidate(values));
+				int p = grid.length - 1;
+				while (p >= 0 && ++index[p] == grid[p].length)
+					index[p--] = 0;
+				if (p < 0) break;
+			}
+		}
+		return candidates;
+	}
+
+	void run(int tournaments, int threads, PrintStream out) throws InterruptedException, IOException {
+		StrategyRegistry registry = game.registry;
+		boolean[] tuned = new boolean[registry.size()];
+		for (Parameter parameter : parameters) {
+			tuned[parameter.strategy] = true;
+			parameter.target = findField(registry.create(parameter.strategy, game).getClass(), parameter.field);
+		}
+		List<Candidate> candidates = candidates();
+		int focus = parameters.get(0).strategy;
+
+		// Play the rest of the field once
+		game.tuned = tuned;
+		game.fieldScores = null;
+		out.println("Playing the matches without " + names(tuned) + " in " + tournaments + " tournaments");
+		float[][] fieldScores = scoreField(tournaments, threads);
+
+		MatchCache fieldCache = game.matchCache;
+		for (int c=0; c<candidates.size(); c++) {
+			Candidate candidate = candidates.get(c);
+			out.println("Configuration " + (c+1) + " of " + candidates.size() + ": " + describe(candidate));
+			ThreePrisonersDilemma template = game.copySettings();
+			template.registry = configure(registry, candidate);
+			template.stoppingRule = game.stoppingRule;
+			template.fieldScores = fieldScores;
+			template.checkpoint = game.checkpoint;
+			template.checkpointLabel = describe(candidate);
+			// The tuned strategies' matches change with the parameters, so
+			// each configuration caches them afresh.
+			if (fieldCache != null) template.matchCache = new MatchCache(registry.size(), 90, ThreePrisonersDilemma.MAX_ROUNDS);
+			candidate.stats = template.runTournaments(tournaments, threads);
+		}
+		game.tuned = null;
+
+		Candidate[] ranked = candidates.toArray(new Candidate[0]);
+		Arrays.sort(ranked, (a, b) -> {
+			int byRank = Double.compare(a.stats.meanRank(focus), b.stats.meanRank(focus));
+			return byRank != 0 ? byRank : Double.compare(b.stats.meanScore(focus), a.stats.meanScore(focus));
+		});
+		out.println();
+		out.println("Results for " + registry.name(focus) + ", best mean rank first");
+		out.printf("%4s  %-40s %7s %7s %9s %9s%n", "", "Parameters", "1st %", "Top 3 %", "Mean rank", "Mean");
+		for (int r=0; r<ranked.length; r++) {
+			TournamentStats stats = ranked[r].stats;
+			long top3 = 0;
+			for (int place=0; place<Math.min(3, stats.numPlayers); place++)
+				top3 += stats.rankCounts[focus][place];
+			out.printf("%4d  %-40s %7.2f %7.2f %9.2f %9.3f%n", r+1, describe(ranked[r]),
+					100.0 * stats.rankCounts[focus][0] / stats.tournaments, 100.0 * top3 / stats.tournaments,
+					stats.meanRank(focus) + 1, stats.meanScore(focus));
+		}
+	}
+
+	// Each tournament's totals from the matches without a tuned strategy,
+	// played in parallel in the same chunks as runTournaments.
+	float[][] scoreField(int tournaments, int threads) throws InterruptedException {
+		float[][] fieldScores = new float[tournaments][];
+		ExecutorService pool = ThreePrisonersDilemma.workerPool(threads);
+		ThreadLocal<ThreePrisonersDilemma> instance = ThreadLocal.withInitial(game::copySettings);
+		try {
+			List<Future<?>> chunks = new ArrayList<>();
+			for (int start = 0; start < tournaments; start += game.chunkSize()) {
+				int first = start, last = Math.min(start + game.chunkSize(), tournaments);
+				chunks.add(pool.submit(() -> {
+					ThreePrisonersDilemma worker = instance.get();
+					worker.playBatches(first, last);
+					for (int t = first; t < last; t++)
+						fieldScores[t] = worker.scoreTournament(t);
+					worker.batchScores = null;
+				}));
+			}
+			for (Future<?> chunk : chunks) {
+				try {
+					game.await(chunk);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Tournament worker failed", e.getCause());
+				}
+			}
+			return fieldScores;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// A copy of the registry whose tuned strategies come out of their
+	// factories with the candidate's values already set.
+	StrategyRegistry configure(StrategyRegistry registry, Candidate candidate) {
+		StrategyRegistry configured = registry.copy();
+		if (candidate.values == null) return configured;
+		for (Parameter parameter : parameters) {
+			int id = parameter.strategy;
+			configured.replace(id, instance -> {
+				Player player = registry.create(id, instance);
+				for (int p=0; p<parameters.size(); p++)
+					if (parameters.get(p).strategy == id)
+						set(player, parameters.get(p).target, candidate.values[p]);
+				return player;
+			});
+		}
+		return configured;
+	}
+
+	String describe(Candidate candidate) {
+		if (candidate.values == null) return "(defaults)";
+		StringBuilder text = new StringBuilder();
+		for (int p=0; p<parameters.size(); p++) {
+			Parameter parameter = parameters.get(p);
+			if (p > 0) text.append(' ');
+			text.append(parameter.field).append('=');
+			Class<?> type = parameter.target.getType();
+			if (type == int.class || type == long.class) text.append(Math.round(candidate.values[p]));
+			else text.append(String.format("%.4g", candidate.values[p]));
+		}
+		return text.toString();
+	}
+
+	private String names(boolean[] tuned) {
+		StringBuilder text = new StringBuilder();
+		for (int id=0; id<tuned.length; id++)
+			if (tuned[id]) text.append(text.length() > 0 ? ", " : "").append(game.registry.name(id));
+		return text.toString();
+	}
+
+	private static Field findField(Class<?> type, String name) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			try {
+				Field field = c.getDeclaredField(name);
+				Class<?> t = field.getType();
+				if (t != double.class && t != float.class && t != int.class && t != long.class
+						|| Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()))
+					throw new RuntimeException("Field " + name + " of " + type.getName() + " is not a numeric instance field that can be changed");
+				field.setAccessible(true);
+				return field;
+			} catch (NoSuchFieldException e) {
+				// try the superclass
+			}
+		}
+		throw new RuntimeException("No field " + name + " in " + type.getName());
+	}
+
+	private static void set(Object player, Field field, double value) {
+		try {
+			Class<?> t = field.getType();
+			if (t == double.class) field.setDouble(player, value);
+			else if (t == float.class) field.setFloat(player, (float) value);
+			else if (t == int.class) field.setInt(player, (int) Math.round(value));
+			else field.setLong(player, Math.round(value));
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Cannot set " + field.getName(), e);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+import java.lang.reflect.Method;
+import java.util.SplittableRandom;
+
+/* A strategy in the tournament. Player is a class of its own, not nested in
+ ThreePrisonersDilemma, so that a strategy kept in a file of its own, such as
+ Tan_JamesCheeMin_Player.java, compiles against it without the rest of the
+ game, and so that the daemon (see TournamentDaemon) can load strategies in
+ class loaders of their own that share this class with the engine.
+
+ A class from another loader is in another runtime package, even in the
+ default package, so what strategies override or call is public or
+ protected here and in History; the rest is left to the engine. */
+
+public abstract class Player {
+	// This procedure takes in the number of rounds elapsed so far (n), and 
+	// the previous plays in the match, and returns the appropriate action.
+	protected int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		throw new RuntimeException("You need to override the selectAction method.");
+	}
+	
+	// This is the version the match engine calls. The histories are views
+	// onto the match buffers, with the first n plays valid. Strategies written
+	// against the int[] version above still work: they get a copy of the plays.
+	protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
+		return selectAction(n, myHistory.toArray(), oppHistory1.toArray(), oppHistory2.toArray());
+	}
+	
+	// Players draw their random numbers from here rather than Math.random().
+	// The tournament gives each player its own stream, split from the seed of
+	// the run, so that a seeded run can be played again exactly. It stays
+	// null until then, so a path that forgets to hand out a stream fails
+	// instead of quietly drawing unseeded numbers.
+	SplittableRandom rng = null;
+	
+	// Set in the mirror image of a match (see -antithetic): every number
+	// the player draws is one minus the one it drew in the original.
+	boolean mirrored = false;
+	
+	protected double random() {
+		double u = rng.nextDouble();
+		return mirrored ? 1 - u : u;
+	}
+	
+	// Whether this player always makes the same plays given the same
+	// histories. A match between three deterministic players always ends
+	// the same way for a given number of rounds, so the tournament can
+	// reuse its result instead of playing it again.
+	protected boolean isDeterministic() {
+		return false;
+	}
+	
+	// For cycle detection: a value standing for everything that decides this
+	// player's plays from round n on, apart from the opponents' future plays.
+	// If it gives the same value before two rounds, it must go on to make the
+	// same plays after both, as long as its opponents do too, at least until
+	// round cycleHorizon(). NO_CYCLE_STATE means it cannot tell.
+	protected static final long NO_CYCLE_STATE = Long.MIN_VALUE;
+	
+	protected long cycleState(int n, History myHistory, History oppHistory1, History oppHistory2) {
+		return NO_CYCLE_STATE;
+	}
+	
+	protected int cycleHorizon() {
+		return Integer.MAX_VALUE;
+	}
+	
+	// Called when cycle detection has copied the given number of rounds into
+	// the histories without asking the player. cycleState() describes rounds
+	// relative to n, so a player that keeps a round number in its fields must
+	// move it on by as many rounds here for that state to still hold.
+	protected void skipRounds(int rounds) {
+	}
+	
+	// The hooks above describe the play of the selectAction they were
+	// written next to. A subclass that overrides selectAction but not a hook
+	// would inherit a description of someone else's play, so the engine only
+	// honours a hook declared in the class that declares the player's
+	// selectAction, or in a subclass of it, and otherwise takes the default.
+	// This is worked out once per class.
+	static final class Hooks {
+		private static final ClassValue<Hooks> BY_CLASS = new ClassValue<Hooks>() {
+			protected Hooks computeValue(Class<?> type) {
+				return new Hooks(type);
+			}
+		};
+		
+		final boolean deterministic, markov, fsm, cycles;
+		
+		private Hooks(Class<?> type) {
+			deterministic = honoured(type, "isDeterministic");
+			// Those of ModelledPlayer, which only built-in strategies implement
+			markov = honoured(type, "markovModels");
+			fsm = honoured(type, "fsmTable");
+			cycles = honoured(type, "cycleState"); // and with it cycleHorizon()
+		}
+		
+		static Hooks of(Class<?> type) {
+			return BY_CLASS.get(type);
+		}
+		
+		private static boolean honoured(Class<?> type, String hook) {
+			Class<?> declared = declaring(type, hook);
+			return declared != null && declaring(type, "selectAction").isAssignableFrom(declared);
+		}
+		
+		// The nearest class, from type up, that declares a method of the
+		// given name.
+		private static Class<?> declaring(Class<?> type, String name) {
+			for (Class<?> c = type; c != null; c = c.getSuperclass())
+				for (Method method : c.getDeclaredMethods())
+					if (method.getName().equals(name) && !method.isBridge()) return c;
+			return null;
+		}
+	}
+	
+	final Hooks hooks = Hooks.of(getClass());
+	
+	// What the engine asks of the hooks, taking the default for those it
+	// does not honour.
+	final boolean deterministic() {
+		return hooks.deterministic && isDeterministic();
+	}
+	
+	final long cycleKey(int n, History myHistory, History oppHistory1, History oppHistory2) {
+		return hooks.cycles ? cycleState(n, myHistory, oppHistory1, oppHistory2) : NO_CYCLE_STATE;
+	}
+	
+	final int cycleLimit() {
+		return hooks.cycles ? cycleHorizon() : Integer.MAX_VALUE;
+	}
+	
+	// Gets this player ready to start a new match. Players that can clear
+	// their state return true, and the tournament reuses them from match to
+	// match. By default a player is not reused: the tournament makes a fresh
+	// one for every match, so strategies that keep state in their fields
+	// should override this if they can put that state back.
+	protected boolean reset() {
+		return false;
+	}
+	
+	// Used to extract the name of this player class.
+	public final String name() {
+		String result = getClass().getName();
+		return result.substring(result.indexOf('$')+1);
+	}
+}
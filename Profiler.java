@@ -0,0 +1,269 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ Where the time of a run goes, strategy by strategy (see -profile). Every
+ selectAction call is timed into a histogram for its strategy, every match
+ that is played counts the bytes its thread allocated, and matches and
+ tournaments are reported as JFR events, which a flight recording started
+ with -XX:StartFlightRecording picks up.
+
+ Each worker has a Profiler of its own, made by fork(), so recording never
+ needs a lock; the runner adds them up with total() once the workers are done.
+ With -profile off the match loop only pays for a null check.
+
+ The histograms are log-linear, in the manner of HdrHistogram: values below
+ 16ns each have a bucket, and above that every power of two is split into 8
+ buckets, so any value is known to within 12.5%. Matches the MatchCache or
+ the state-machine kernel (-fsm) score are not played move by move, so they
+ do not show up in the call times. */
+
+class Profiler {
+	static final int SUB_BUCKETS = 8;
+	static final int BUCKETS = 16 + (64 - 4) * SUB_BUCKETS;
+
+	@Name("ThreePrisonersDilemma.Match")
+	@Label("Match")
+	@Category("Three Prisoners Dilemma")
+	@Description("A match played move by move")
+	static class MatchEvent extends Event {
+		@Label("Player A") String playerA;
+		@Label("Player B") String playerB;
+		@Label("Player C") String playerC;
+		@Label("Rounds") int rounds;
+		@Label("Allocated") long allocated;
+		@Label("Score A") float scoreA;
+		@Label("Score B") float scoreB;
+		@Label("Score C") float scoreC;
+	}
+
+	@Name("ThreePrisonersDilemma.Tournament")
+	@Label("Tournament")
+	@Category("Three Prisoners Dilemma")
+	@Description("A tournament, from its first match to its ranking")
+	static class TournamentEvent extends Event {
+		@Label("Tournament") int tournament;
+	}
+
+	private final int numPlayers;
+	private final String[] names;
+	private final List<Profiler> forks;
+	final long[][] latency;    // latency[strategy][bucket], selectAction calls
+	final long[] nanos;        // total time in selectAction, by strategy
+	final long[] maxNanos;
+	final long[] matchBytes;   // bytes allocated by the matches each strategy played in
+	final long[] matches;
+	final long[] tripleBytes;  // by triple, in the order they are played
+	final long[] tripleMatches;
+
+	// The match being played
+	private final int[] seat = new int[3];
+	private int triple;
+	private long bytesBefore;
+	private MatchEvent matchEvent;
+	private TournamentEvent tournamentEvent;
+	private final com.sun.management.ThreadMXBean threads;
+
+	Profiler(StrategyRegistry registry) {
+		this(registry, new ArrayList<>());
+	}
+
+	private Profiler(StrategyRegistry registry, List<Profiler> forks) {
+		numPlayers = registry.size();
+		names = new String[numPlayers];
+		for (int p=0; p<numPlayers; p++)
+			names[p] = registry.name(p);
+		this.forks = forks;
+		latency = new long[numPlayers][BUCKETS];
+		nanos = new long[numPlayers];
+		maxNanos = new long[numPlayers];
+		matchBytes = new long[numPlayers];
+		matches = new long[numPlayers];
+		int triples = numPlayers * (numPlayers+1) * (numPlayers+2) / 6;
+		tripleBytes = new long[triples];
+		tripleMatches = new long[triples];
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		threads = bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+				? (com.sun.management.ThreadMXBean) bean : null;
+		if (threads != null) threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	// A profiler for one worker, added into total().
+	Profiler fork(StrategyRegistry registry) {
+		Profiler fork = new Profiler(registry, forks);
+		synchronized (forks) {
+			forks.add(fork);
+		}
+		return fork;
+	}
+
+	void startTournament(int tournament) {
+		tournamentEvent = new TournamentEvent();
+		tournamentEvent.tournament = tournament;
+		tournamentEvent.begin();
+	}
+
+	void endTournament() {
+		tournamentEvent.commit();
+		tournamentEvent = null;
+	}
+
+	void startMatch(int triple, int i, int j, int k) {
+		this.triple = triple;
+		seat[0] = i;
+		seat[1] = j;
+		seat[2] = k;
+		matchEvent = new MatchEvent();
+		matchEvent.begin();
+		bytesBefore = allocatedBytes();
+	}
+
+	void endMatch(int rounds, float[] result) {
+		long bytes = allocatedBytes() - bytesBefore;
+		tripleBytes[triple] += bytes;
+		tripleMatches[triple]++;
+		for (int s=0; s<3; s++) {
+			if (s > 0 && seat[s] == seat[s-1]) continue; // count each strategy once per match
+			matchBytes[seat[s]] += bytes;
+			matches[seat[s]]++;
+		}
+		matchEvent.end();
+		if (matchEvent.shouldCommit()) {
+			matchEvent.playerA = names[seat[0]];
+			matchEvent.playerB = names[seat[1]];
+			matchEvent.playerC = names[seat[2]];
+			matchEvent.rounds = rounds;
+			matchEvent.allocated = bytes;
+			matchEvent.scoreA = result[0];
+			matchEvent.scoreB = result[1];
+			matchEvent.scoreC = result[2];
+			matchEvent.commit();
+		}
+		matchEvent = null;
+	}
+
+	// Calls selectAction for the player in the given seat (0 for A) and
+	// times it.
+	int selectAction(int seat, Player player, int n,
+			History myHistory, History oppHistory1,
+			History oppHistory2) {
+		long start = System.nanoTime();
+		int action = player.selectAction(n, myHistory, oppHistory1, oppHistory2);
+		long time = System.nanoTime() - start;
+		int strategy = this.seat[seat];
+		latency[strategy][bucket(time)]++;
+		nanos[strategy] += time;
+		if (time > maxNanos[strategy]) maxNanos[strategy] = time;
+		return action;
+	}
+
+	private long allocatedBytes() {
+		return threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+	}
+
+	static int bucket(long value) {
+		if (value < 16) return (int) Math.max(value, 0);
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return 16 + (exponent - 4) * SUB_BUCKETS + (int) (value >>> (exponent - 3)) - SUB_BUCKETS;
+	}
+
+	// The smallest value that falls in the given bucket.
+	static long bucketStart(int bucket) {
+		if (bucket < 16) return bucket;
+		int exponent = (bucket - 16) / SUB_BUCKETS + 4;
+		return (long) (SUB_BUCKETS + (bucket - 16) % SUB_BUCKETS) << (exponent - 3);
+	}
+
+	// The value below which the given fraction of a strategy's calls fall.
+	long percentile(int strategy, double fraction) {
+		long calls = calls(strategy);
+		long target = (long) Math.ceil(fraction * calls), seen = 0;
+		for (int b=0; b<BUCKETS; b++) {
+			seen += latency[strategy][b];
+			if (seen >= target && seen > 0) return Math.min(bucketStart(b + 1) - 1, maxNanos[strategy]);
+		}
+		return 0;
+	}
+
+	long calls(int strategy) {
+		long calls = 0;
+		for (long count : latency[strategy])
+			calls += count;
+		return calls;
+	}
+
+	// The sum of this profiler's forks.
+	Profiler total(StrategyRegistry registry) {
+		Profiler total = new Profiler(registry);
+		synchronized (forks) {
+			for (Profiler fork : forks)
+				total.add(fork);
+		}
+		return total;
+	}
+
+	private void add(Profiler other) {
+		for (int p=0; p<numPlayers; p++) {
+			for (int b=0; b<BUCKETS; b++)
+				latency[p][b] += other.latency[p][b];
+			nanos[p] += other.nanos[p];
+			maxNanos[p] = Math.max(maxNanos[p], other.maxNanos[p]);
+			matchBytes[p] += other.matchBytes[p];
+			matches[p] += other.matches[p];
+		}
+		for (int t=0; t<tripleBytes.length; t++) {
+			tripleBytes[t] += other.tripleBytes[t];
+			tripleMatches[t] += other.tripleMatches[t];
+		}
+	}
+
+	// A table of each strategy's selectAction times, slowest mean first, and
+	// of the bytes allocated by the matches it played in, followed by the
+	// triples whose matches allocated the most.
+	void printSummary(PrintStream out) {
+		Integer[] order = new Integer[numPlayers];
+		for (int p=0; p<numPlayers; p++)
+			order[p] = p;
+		Arrays.sort(order, (p, q) -> Double.compare(meanNanos(q), meanNanos(p)));
+		out.printf("%-28s %11s %8s %8s %8s %9s %10s %11s%n", "selectAction", "Calls", "Mean ns", "p50 ns",
+				"p99 ns", "p99.9 ns", "Max ns", "KB/match");
+		for (int p : order) {
+			out.printf("%-28s %11d %8.1f %8d %8d %9d %10d %11.2f%n", names[p], calls(p), meanNanos(p),
+					percentile(p, 0.5), percentile(p, 0.99), percentile(p, 0.999), maxNanos[p],
+					matches[p] == 0 ? 0 : matchBytes[p] / 1024.0 / matches[p]);
+		}
+		if (threads == null) out.println("(allocation counts are not supported by this JVM)");
+
+		Integer[] triples = new Integer[tripleBytes.length];
+		for (int t=0; t<triples.length; t++)
+			triples[t] = t;
+		Arrays.sort(triples, (s, t) -> Double.compare(meanBytes(t), meanBytes(s)));
+		out.println();
+		out.println("Most allocation per match");
+		String[] triple = new String[tripleBytes.length];
+		int index = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++)
+			triple[index++] = names[i] + ", " + names[j] + ", " + names[k];
+		for (int t=0; t<Math.min(5, triples.length) && tripleMatches[triples[t]] > 0; t++)
+			out.printf("%11.2f KB  %s%n", meanBytes(triples[t]) / 1024, triple[triples[t]]);
+	}
+
+	private double meanNanos(int strategy) {
+		long calls = calls(strategy);
+		return calls == 0 ? 0 : (double) nanos[strategy] / calls;
+	}
+
+	private double meanBytes(int triple) {
+		return tripleMatches[triple] == 0 ? 0 : (double) tripleBytes[triple] / tripleMatches[triple];
+	}
+}
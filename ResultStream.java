@@ -0,0 +1,74 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/* 
+ Writes the score and rank of every player in every tournament to a file.
+ The workers only ever write records into memory (see TournamentStats); the
+ runner hands each finished chunk of records to this stream, in tournament
+ order, and they go to disk through one large buffer.
+ 
+ The file starts with a header:
+   int    MAGIC
+   int    VERSION
+   long   seed
+   int    number of players
+   UTF    name of each player, by id
+ followed by one record per tournament:
+   int    tournament number
+   then for each player, by id:
+     float  total score
+     byte   rank (0 is first place)  */
+
+class ResultStream implements AutoCloseable {
+	static final int MAGIC = 0x33504452; // "3PDR"
+	static final int VERSION = 1;
+	
+	private final FileOutputStream file;
+	private final DataOutputStream out;
+	
+	ResultStream(String path, StrategyRegistry registry, long seed) throws IOException {
+		file = new FileOutputStream(path);
+		out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(seed);
+		out.writeInt(registry.size());
+		for (int p=0; p<registry.size(); p++)
+			out.writeUTF(registry.name(p));
+	}
+	
+	// Goes on with a file written by a run that stopped (see Checkpoint),
+	// dropping whatever was written after its first length bytes.
+	private ResultStream(String path, long length) throws IOException {
+		try (RandomAccessFile truncate = new RandomAccessFile(path, "rw")) {
+			truncate.setLength(length);
+		}
+		file = new FileOutputStream(path, true);
+		out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+	}
+	
+	static ResultStream resume(String path, long length) throws IOException {
+		return new ResultStream(path, length);
+	}
+	
+	// Writes everything so far through to the disk, and returns the length
+	// of the file.
+	long sync() throws IOException {
+		out.flush();
+		file.getFD().sync();
+		return file.getChannel().position();
+	}
+	
+	// Appends a batch of records made by TournamentStats.record().
+	void write(ByteArrayOutputStream records) throws IOException {
+		records.writeTo(out);
+	}
+	
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,297 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ How a run is going, while it goes (see -metrics): tournaments and matches
+ played and their rates, how often the MatchCache and the MatchStore had a
+ match's scores already, how busy each worker is, how long the run has left,
+ and the players' standings so far. It is published over JMX, for jconsole
+ and the like, and with -metricsport also as Prometheus text at
+ http://localhost:PORT/metrics.
+
+ The workers count into LongAdders, which spread concurrent increments over
+ cells of their own, so counting a match costs a worker an add to a cell no
+ other thread is writing, and no lock. Each worker's time is kept in a Worker
+ of its own, written only by that worker. The counters are only added up
+ when someone reads them. The standings come from the runner, which works
+ them out from the merged TournamentStats after every chunk.
+
+ Rates are averages since the run started, or since the last pass of a
+ sweep; Prometheus can take rates over any window from the _total counters.
+ With -metrics off, the match loop only pays for a null check. */
+
+class RunMetrics implements RunMetricsMBean {
+	static final String NAME = "ThreePrisonersDilemma:type=RunMetrics";
+
+	final LongAdder tournaments = new LongAdder();
+	final LongAdder matches = new LongAdder();
+	final LongAdder cacheHits = new LongAdder();
+	final LongAdder cacheMisses = new LongAdder();
+	final LongAdder storeHits = new LongAdder();
+
+	private final StrategyRegistry registry;
+	private final List<Worker> workers = new CopyOnWriteArrayList<>();
+	private volatile long start = System.nanoTime();
+	private volatile long planned = 0;
+	private volatile String[] leaderboard = new String[0];
+	private volatile double[] meanScores = null; // by player id, or null before the first chunk
+	private volatile double[] meanRanks = null;
+	private HttpServer server = null;
+
+	// The metrics being published. There is only one at a time, as the MBean
+	// name and the port can only be taken once.
+	private static RunMetrics open = null;
+
+	static final class Worker {
+		private volatile long busy = 0;  // nanoseconds in finished chunks
+		private volatile long since = 0; // when the current chunk started, or 0
+
+		void startChunk() {
+			since = System.nanoTime();
+		}
+
+		void endChunk() {
+			busy += System.nanoTime() - since;
+			since = 0;
+		}
+
+		// Read as busy, then since, so that a chunk that ends in between is
+		// left out rather than counted twice.
+		long busy(long now) {
+			long done = busy, current = since;
+			return done + (current == 0 ? 0 : now - current);
+		}
+	}
+
+	RunMetrics(StrategyRegistry registry) {
+		this.registry = registry;
+	}
+
+	// Publishes the metrics over JMX, and on the given port if it is not 0,
+	// in place of any published before.
+	synchronized void open(int port) throws IOException {
+		synchronized (RunMetrics.class) {
+			if (open != null) open.close();
+			open = this;
+		}
+		try {
+			MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+			beans.registerMBean(this, new ObjectName(NAME));
+		} catch (JMException e) {
+			throw new RuntimeException("Could not register " + NAME, e);
+		}
+		if (port != 0) {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext("/metrics", this::scrape);
+			server.start();
+		}
+	}
+
+	synchronized void close() {
+		try {
+			MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(NAME);
+			if (beans.isRegistered(name)) beans.unregisterMBean(name);
+		} catch (JMException e) {
+			// already gone
+		}
+		if (server != null) server.stop(0);
+		server = null;
+	}
+
+	// Stops publishing whatever metrics are published, at the end of a run.
+	static void closeOpen() {
+		synchronized (RunMetrics.class) {
+			if (open != null) open.close();
+			open = null;
+		}
+	}
+
+	// Starts the counts over for a run of the given number of tournaments,
+	// before any of its workers start.
+	void begin(long planned) {
+		tournaments.reset();
+		matches.reset();
+		cacheHits.reset();
+		cacheMisses.reset();
+		storeHits.reset();
+		workers.clear();
+		this.planned = planned;
+		start = System.nanoTime();
+	}
+
+	// A new worker, for a thread that is about to play its first chunk.
+	Worker worker() {
+		Worker worker = new Worker();
+		workers.add(worker);
+		return worker;
+	}
+
+	// Called by the runner with the TournamentStats added up so far.
+	void standings(TournamentStats total) {
+		int numPlayers = total.numPlayers;
+		double[] scores = new double[numPlayers], ranks = new double[numPlayers];
+		Integer[] order = new Integer[numPlayers];
+		for (int p=0; p<numPlayers; p++) {
+			scores[p] = total.meanScore(p);
+			ranks[p] = total.meanRank(p) + 1;
+			order[p] = p;
+		}
+		Arrays.sort(order, (p, q) -> Double.compare(ranks[p], ranks[q]));
+		String[] lines = new String[numPlayers];
+		for (int r=0; r<numPlayers; r++)
+			lines[r] = String.format(Locale.ROOT, "%d. %s: mean score %.3f, mean rank %.2f", r+1,
+					registry.name(order[r]), scores[order[r]], ranks[order[r]]);
+		meanScores = scores;
+		meanRanks = ranks;
+		leaderboard = lines;
+	}
+
+	private double seconds() {
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	@Override
+	public long getTournamentsPlayed() {
+		return tournaments.sum();
+	}
+
+	@Override
+	public long getTournamentsPlanned() {
+		return planned;
+	}
+
+	@Override
+	public long getMatchesPlayed() {
+		return matches.sum();
+	}
+
+	@Override
+	public double getTournamentsPerSecond() {
+		return tournaments.sum() / seconds();
+	}
+
+	@Override
+	public double getMatchesPerSecond() {
+		return matches.sum() / seconds();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	@Override
+	public double getCacheHitRate() {
+		long hits = cacheHits.sum(), lookups = hits + cacheMisses.sum();
+		return lookups == 0 ? Double.NaN : (double) hits / lookups;
+	}
+
+	@Override
+	public long getStoreHits() {
+		return storeHits.sum();
+	}
+
+	@Override
+	public double[] getWorkerUtilization() {
+		long now = System.nanoTime(), elapsed = now - start;
+		double[] utilization = new double[workers.size()];
+		int w = 0;
+		for (Worker worker : workers) {
+			if (w == utilization.length) break; // joined after the array was made
+			utilization[w++] = elapsed <= 0 ? 0 : Math.min((double) worker.busy(now) / elapsed, 1);
+		}
+		return utilization;
+	}
+
+	@Override
+	public double getSecondsLeft() {
+		long played = tournaments.sum();
+		if (played == 0) return Double.NaN;
+		return Math.max(planned - played, 0) * seconds() / played;
+	}
+
+	@Override
+	public String[] getLeaderboard() {
+		return leaderboard.clone();
+	}
+
+	// Answers a scrape with every reading in the Prometheus text format.
+	private void scrape(HttpExchange exchange) throws IOException {
+		StringBuilder text = new StringBuilder();
+		metric(text, "tpd_tournaments_total", "counter", "Tournaments played", getTournamentsPlayed());
+		metric(text, "tpd_tournaments_planned", "gauge", "Tournaments the run is to play", getTournamentsPlanned());
+		metric(text, "tpd_matches_total", "counter", "Matches scored, however their scores were found", getMatchesPlayed());
+		metric(text, "tpd_tournaments_per_second", "gauge", "Tournaments per second since the run started", getTournamentsPerSecond());
+		metric(text, "tpd_matches_per_second", "gauge", "Matches per second since the run started", getMatchesPerSecond());
+		metric(text, "tpd_cache_hits_total", "counter", "Matches found in the MatchCache", getCacheHits());
+		metric(text, "tpd_cache_misses_total", "counter", "Matches the MatchCache could keep but did not have yet", getCacheMisses());
+		metric(text, "tpd_cache_hit_ratio", "gauge", "Share of MatchCache lookups that found the match", getCacheHitRate());
+		metric(text, "tpd_store_hits_total", "counter", "Matches found in the MatchStore", getStoreHits());
+		metric(text, "tpd_seconds_left", "gauge", "Time the run has left at its rate so far", getSecondsLeft());
+
+		header(text, "tpd_worker_utilization", "gauge", "Share of the time since the run started each worker spent playing");
+		double[] utilization = getWorkerUtilization();
+		for (int w=0; w<utilization.length; w++)
+			sample(text, "tpd_worker_utilization{worker=\"" + w + "\"}", utilization[w]);
+		double[] scores = meanScores, ranks = meanRanks;
+		if (scores != null) {
+			header(text, "tpd_mean_score", "gauge", "Each player's mean total score so far");
+			for (int p=0; p<scores.length; p++)
+				sample(text, "tpd_mean_score{player=\"" + label(registry.name(p)) + "\"}", scores[p]);
+			header(text, "tpd_mean_rank", "gauge", "Each player's mean place so far, 1 being first");
+			for (int p=0; p<ranks.length; p++)
+				sample(text, "tpd_mean_rank{player=\"" + label(registry.name(p)) + "\"}", ranks[p]);
+		}
+
+		byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static void metric(StringBuilder text, String name, String type, String help, double value) {
+		header(text, name, type, help);
+		sample(text, name, value);
+	}
+
+	private static void header(StringBuilder text, String name, String type, String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder text, String name, double value) {
+		text.append(name).append(' ');
+		if (Double.isNaN(value)) text.append("NaN");
+		else if (value == Math.rint(value) && Math.abs(value) < 1e15) text.append((long) value);
+		else text.append(value);
+		text.append('\n');
+	}
+
+	private static String label(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,34 @@
+/* The readings of a run that RunMetrics publishes over JMX, under the name
+ ThreePrisonersDilemma:type=RunMetrics. */
+
+public interface RunMetricsMBean {
+	long getTournamentsPlayed();
+
+	// The tournaments the run is to play, from where it started or resumed;
+	// at most that many with a stopping rule.
+	long getTournamentsPlanned();
+
+	long getMatchesPlayed();
+
+	double getTournamentsPerSecond();
+
+	double getMatchesPerSecond();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	double getCacheHitRate();
+
+	long getStoreHits();
+
+	// The fraction of the time since the run started that each worker has
+	// spent playing chunks.
+	double[] getWorkerUtilization();
+
+	// At the rate so far; NaN before the first tournament.
+	double getSecondsLeft();
+
+	// The players by mean rank over the tournaments added up so far.
+	String[] getLeaderboard();
+}
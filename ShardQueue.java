@@ -0,0 +1,274 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ A run split across several processes, on one machine or on several that
+ share a directory (see -shard and -merge). The tournaments are cut into the
+ same chunks runTournaments() uses, and every chunk is a file in a queue
+ directory. Each shard process claims chunks one at a time, by renaming the
+ chunk's file, which only one process can do, plays them, and writes each
+ chunk's TournamentStats to a file of its own. A fast shard just claims more
+ chunks. Once every chunk is done, -merge adds the chunks up in order, exactly
+ as runTournaments() does, so the statistics come out the same as a single
+ run with the same seed would give them, to the last bit.
+
+ The directory holds
+   queue/run             the run, written once by the first shard
+   queue/todo/N          a chunk no shard has claimed; N is its number
+   queue/claimed/N.ID    a chunk being played, by the shard ID (pid@host)
+   queue/done/N          the results of a chunk
+ The queue is made in a directory of its own and renamed into place, so when
+ shards start together only one of them makes it. A shard that dies leaves
+ its chunks in claimed; they can be moved back to todo by hand.
+
+ The run file is
+   int    MAGIC
+   int    VERSION
+   long   seed
+   long   roster: a hash of the strategies' names and fingerprints (as in
+          MatchStore), of the tracked player and of the sampling (see -rounds)
+   int    number of tournaments
+   int    number of players
+   UTF    name of each player, by id
+ and every result file
+   int    MAGIC
+   int    VERSION
+   long   seed
+   long   roster
+   int    first tournament
+   int    last tournament (exclusive)
+   then the chunk's TournamentStats, as written by TournamentStats.write(),
+   with every tournament's scores and ranks in the format of ResultStream. */
+
+class ShardQueue {
+	static final int MAGIC = 0x33504453; // "3PDS"
+	static final int VERSION = 2;
+
+	final Path dir, queue, todo, claimed, done;
+	final long seed;
+	final long roster;
+	final String[] names;
+	final int chunkSize; // the game's chunkSize()
+	int tournaments = 0;
+	private final String id = ManagementFactory.getRuntimeMXBean().getName();
+
+	ShardQueue(Path dir, ThreePrisonersDilemma game) throws IOException {
+		this.dir = dir;
+		queue = dir.resolve("queue");
+		todo = queue.resolve("todo");
+		claimed = queue.resolve("claimed");
+		done = queue.resolve("done");
+		seed = game.seed;
+		names = new String[game.registry.size()];
+		for (int p=0; p<names.length; p++)
+			names[p] = game.registry.name(p);
+		roster = roster(game);
+		chunkSize = game.chunkSize();
+	}
+
+	// A hash of what, besides the seed, decides the results of a run.
+	static long roster(ThreePrisonersDilemma game) throws IOException {
+		long hash = mix(game.trackedPlayer, game.samplingKey());
+		for (int p=0; p<game.registry.size(); p++) {
+			hash = mix(hash, game.registry.name(p).hashCode());
+			hash = mix(hash, MatchStore.fingerprint(game.registry.create(p, game), game));
+		}
+		return hash;
+	}
+
+	// Makes the queue for the given number of tournaments, unless another
+	// shard has made it already, and joins it.
+	void create(int tournaments) throws IOException {
+		if (!Files.isDirectory(queue)) {
+			Files.createDirectories(dir);
+			Path draft = Files.createTempDirectory(dir, ".queue-");
+			try (DataOutputStream out = create(draft.resolve("run"))) {
+				out.writeLong(seed);
+				out.writeLong(roster);
+				out.writeInt(tournaments);
+				out.writeInt(names.length);
+				for (String name : names)
+					out.writeUTF(name);
+			}
+			Files.createDirectory(draft.resolve("todo"));
+			Files.createDirectory(draft.resolve("claimed"));
+			Files.createDirectory(draft.resolve("done"));
+			for (int chunk=0; chunk<chunks(tournaments); chunk++)
+				Files.createFile(draft.resolve("todo").resolve(name(chunk)));
+			try {
+				Files.move(draft, queue, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				delete(draft);
+				if (!Files.isDirectory(queue)) throw e;
+				// else another shard got there first
+			}
+		}
+		open();
+		if (this.tournaments != tournaments)
+			throw new RuntimeException("The queue in " + dir + " is for " + this.tournaments + " tournaments, not " + tournaments);
+	}
+
+	// Joins the queue, which must have been made with the same seed and
+	// strategies.
+	void open() throws IOException {
+		if (!Files.isDirectory(queue)) throw new RuntimeException("No shard queue in " + dir);
+		try (DataInputStream in = open(queue.resolve("run"))) {
+			if (in.readLong() != seed) throw new RuntimeException("The queue in " + dir + " is for another seed");
+			if (in.readLong() != roster) throw new RuntimeException("The queue in " + dir + " is for other strategies");
+			tournaments = in.readInt();
+		}
+	}
+
+	// Plays chunks with the given number of threads until there are none left
+	// to claim. Returns the number of chunks this process played.
+	int play(ThreePrisonersDilemma game, int threads) throws InterruptedException {
+		ExecutorService pool = ThreePrisonersDilemma.workerPool(threads);
+		AtomicInteger played = new AtomicInteger();
+		try {
+			List<Future<Void>> workers = new ArrayList<>();
+			for (int t=0; t<threads; t++) {
+				workers.add(pool.submit(() -> {
+					ThreePrisonersDilemma worker = game.copySettings();
+					worker.keepRecords = true;
+					for (int chunk = claim(); chunk >= 0; chunk = claim()) {
+						int first = chunk * chunkSize;
+						int last = Math.min(first + chunkSize, tournaments);
+						finish(chunk, first, last, worker.runChunk(first, last));
+						played.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			for (Future<Void> worker : workers) {
+				try {
+					game.await(worker);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Shard worker failed", e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return played.get();
+	}
+
+	// Claims the first chunk left in todo, or returns -1 if there is none.
+	private int claim() throws IOException {
+		List<Path> left;
+		try (Stream<Path> files = Files.list(todo)) {
+			left = files.sorted().collect(Collectors.toList());
+		}
+		for (Path file : left) {
+			String name = file.getFileName().toString();
+			try {
+				Files.move(file, claimed.resolve(name + "." + id), StandardCopyOption.ATOMIC_MOVE);
+			} catch (NoSuchFileException e) {
+				continue; // another shard claimed it
+			}
+			return Integer.parseInt(name);
+		}
+		return -1;
+	}
+
+	private void finish(int chunk, int first, int last, TournamentStats stats) throws IOException {
+		Path file = done.resolve(name(chunk)), temp = temp(file);
+		try (DataOutputStream out = create(temp)) {
+			out.writeLong(seed);
+			out.writeLong(roster);
+			out.writeInt(first);
+			out.writeInt(last);
+			stats.write(out);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.deleteIfExists(claimed.resolve(name(chunk) + "." + id));
+	}
+
+	// The number of chunks that are not done yet.
+	int remaining() throws IOException {
+		try (Stream<Path> files = Files.list(done)) {
+			return chunks(tournaments) - (int) files.filter(file -> !file.toString().endsWith(".tmp")).count();
+		}
+	}
+
+	// Adds up the results of every chunk, in order, as runTournaments() does,
+	// writing their records to resultStream if it is not null.
+	TournamentStats merge(ResultStream resultStream) throws IOException {
+		int chunks = chunks(tournaments);
+		List<Integer> missing = new ArrayList<>();
+		for (int chunk=0; chunk<chunks; chunk++)
+			if (!Files.exists(done.resolve(name(chunk)))) missing.add(chunk);
+		if (!missing.isEmpty())
+			throw new RuntimeException(missing.size() + " of " + chunks + " chunks in " + dir + " are not done, such as chunk " + missing.get(0));
+		TournamentStats total = new TournamentStats(names.length);
+		for (int chunk=0; chunk<chunks; chunk++) {
+			try (DataInputStream in = open(done.resolve(name(chunk)))) {
+				if (in.readLong() != seed || in.readLong() != roster)
+					throw new RuntimeException("Chunk " + chunk + " in " + dir + " is from another run");
+				int first = in.readInt(), last = in.readInt();
+				TournamentStats stats = TournamentStats.read(in);
+				if (first != chunk * chunkSize || stats.tournaments != last - first)
+					throw new RuntimeException("Chunk " + chunk + " in " + dir + " does not hold its tournaments");
+				total.merge(stats);
+				if (resultStream != null) resultStream.write(stats.records);
+			}
+		}
+		return total;
+	}
+
+	private int chunks(int tournaments) {
+		return (tournaments + chunkSize - 1) / chunkSize;
+	}
+
+	private static String name(int chunk) {
+		return String.format("%06d", chunk);
+	}
+
+	private static long mix(long a, long b) {
+		return new SplittableRandom(a ^ Long.rotateLeft(b, 29)).nextLong();
+	}
+
+	private static DataInputStream open(Path file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			in.close();
+			throw new IOException("Not a shard file: " + file);
+		}
+		return in;
+	}
+
+	private static DataOutputStream create(Path file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		return out;
+	}
+
+	private Path temp(Path file) {
+		return file.resolveSibling(file.getFileName() + "." + id + ".tmp");
+	}
+
+	private static void delete(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+import java.util.Arrays;
+
+/* 
+ Decides when a run has played enough tournaments. The runner plays the
+ tournaments in batches and asks the rule after each batch; the run stops as
+ soon as every estimate the rule asks for is known well enough, or when the
+ maximum number of tournaments has been played.
+ 
+ All intervals are 95% intervals: Wilson score intervals for the placement
+ probabilities, and normal intervals for the mean scores. When tournaments
+ are sampled in blocks that are not independent inside (stratified rounds or
+ antithetic pairs, see -rounds), both are normal intervals from the spread
+ between blocks instead (see TournamentStats.blockError()). That is what lets
+ a run with variance reduction stop sooner, and keeps the intervals honest
+ when common rounds make a block's tournaments alike. */
+
+class StoppingRule {
+	static final double Z = 1.959964;
+	
+	// Largest half-width allowed for the probability of each player finishing
+	// 1st, 2nd or 3rd; 0 to leave placements out of the rule.
+	double placementPrecision = 0;
+	
+	// Largest half-width allowed, in points, for each player's mean score;
+	// 0 to leave mean scores out of the rule.
+	double scorePrecision = 0;
+	
+	// If set, also wait until the mean-score intervals of players next to each
+	// other in the ranking no longer overlap. Players whose scores are truly
+	// tied never separate, so such runs go on to the maximum.
+	boolean separateRanks = false;
+	
+	// Tournaments played between checks. This does not depend on the number
+	// of threads, so a seeded run always stops at the same point.
+	int batchSize = 1000;
+	
+	boolean satisfied(TournamentStats stats) {
+		if (stats.tournaments < 2) return false;
+		if (placementPrecision > 0 && widestPlacementInterval(stats) > placementPrecision) return false;
+		if (scorePrecision > 0 && widestScoreInterval(stats) > scorePrecision) return false;
+		if (separateRanks && overlappingNeighbours(stats) > 0) return false;
+		return true;
+	}
+	
+	String progress(TournamentStats stats) {
+		StringBuilder result = new StringBuilder("After " + stats.tournaments + " tournaments:");
+		if (placementPrecision > 0)
+			result.append(String.format(" placements +/-%.4f", widestPlacementInterval(stats)));
+		if (scorePrecision > 0)
+			result.append(String.format(" scores +/-%.3f", widestScoreInterval(stats)));
+		if (separateRanks)
+			result.append(" " + overlappingNeighbours(stats) + " overlapping neighbours");
+		return result.toString();
+	}
+	
+	double widestPlacementInterval(TournamentStats stats) {
+		double widest = 0;
+		for (int p=0; p<stats.numPlayers; p++)
+			for (int r=0; r<Math.min(3, stats.numPlayers); r++)
+				widest = Math.max(widest, placementHalfWidth(stats, p, r));
+		return widest;
+	}
+	
+	double widestScoreInterval(TournamentStats stats) {
+		double widest = 0;
+		for (int p=0; p<stats.numPlayers; p++)
+			widest = Math.max(widest, scoreHalfWidth(stats, p));
+		return widest;
+	}
+	
+	// The number of pairs of players, adjacent when ranked by mean score,
+	// whose mean-score intervals overlap.
+	int overlappingNeighbours(TournamentStats stats) {
+		Integer[] order = new Integer[stats.numPlayers];
+		for (int p=0; p<stats.numPlayers; p++)
+			order[p] = p;
+		Arrays.sort(order, (p, q) -> Double.compare(stats.meanScore(q), stats.meanScore(p)));
+		int overlapping = 0;
+		for (int i=1; i<order.length; i++) {
+			int upper = order[i-1], lower = order[i];
+			if (stats.meanScore(upper) - scoreHalfWidth(stats, upper) <= stats.meanScore(lower) + scoreHalfWidth(stats, lower))
+				overlapping++;
+		}
+		return overlapping;
+	}
+	
+	static double placementHalfWidth(TournamentStats stats, int p, int place) {
+		if (stats.blockSize > 1) return blockHalfWidth(stats.placementError(p, place));
+		return wilsonHalfWidth(stats.rankCounts[p][place], stats.tournaments);
+	}
+	
+	static double scoreHalfWidth(TournamentStats stats, int p) {
+		if (stats.blockSize > 1) return blockHalfWidth(stats.scoreError(p));
+		return Z * Math.sqrt(stats.scoreVariance(p) / stats.tournaments);
+	}
+	
+	// Too few blocks for an error means no interval yet.
+	private static double blockHalfWidth(double error) {
+		return Double.isNaN(error) ? Double.POSITIVE_INFINITY : Z * error;
+	}
+	
+	static double wilsonHalfWidth(long successes, long trials) {
+		double p = (double) successes / trials;
+		double z2 = Z * Z;
+		return Z * Math.sqrt(p * (1 - p) / trials + z2 / (4.0 * trials * trials)) / (1 + z2 / trials);
+	}
+}
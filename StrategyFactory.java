@@ -0,0 +1,13 @@
+/* 
+ Makes new players of one strategy. The strategies built into
+ ThreePrisonersDilemma are registered with one of these each. A strategy kept
+ in a file of its own can join the tournament without any edits to the
+ tournament: implement this interface in a public class with a no-argument
+ constructor, and list that class in META-INF/services/StrategyFactory on the
+ classpath. */
+
+public interface StrategyFactory {
+	// game is the tournament the player is made for, for strategies that are
+	// inner classes of it.
+	Player create(ThreePrisonersDilemma game);
+}
@@ -0,0 +1,95 @@
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/* 
+ The strategies taking part in a tournament. Each one gets an integer id, in
+ the order it was registered, and the tournament refers to players by that id
+ everywhere. */
+
+class StrategyRegistry {
+	private final List<String> names = new ArrayList<>();
+	private final List<StrategyFactory> factories = new ArrayList<>();
+	
+	// Adds a strategy and returns its id.
+	int register(String name, StrategyFactory factory) {
+		if (id(name) >= 0)
+			throw new RuntimeException("Strategy registered twice: " + name);
+		names.add(name);
+		factories.add(factory);
+		return names.size() - 1;
+	}
+	
+	int size() {
+		return names.size();
+	}
+	
+	String name(int id) {
+		return names.get(id);
+	}
+	
+	// The id of the named strategy, or -1 if it is not registered.
+	int id(String name) {
+		return names.indexOf(name);
+	}
+	
+	Player create(int id, ThreePrisonersDilemma game) {
+		return factories.get(id).create(game);
+	}
+	
+	// Swaps in a different factory for a strategy, keeping its name and id.
+	void replace(int id, StrategyFactory factory) {
+		factories.set(id, factory);
+	}
+	
+	// A registry with the same strategies, which can be changed on its own.
+	StrategyRegistry copy() {
+		StrategyRegistry copy = new StrategyRegistry();
+		copy.names.addAll(names);
+		copy.factories.addAll(factories);
+		return copy;
+	}
+	
+	// Registers every StrategyFactory listed in META-INF/services on the
+	// class path of the given loader, skipping strategies that are already
+	// registered.
+	void loadServices(ThreePrisonersDilemma game, ClassLoader loader) {
+		for (StrategyFactory factory : ServiceLoader.load(StrategyFactory.class, loader)) {
+			String name = factory.create(game).name();
+			if (id(name) < 0)
+				register(name, factory);
+		}
+	}
+	
+	// Registers a Player subclass by class name. It may be a top-level class
+	// with a no-argument constructor, or an inner class of ThreePrisonersDilemma.
+	int registerClass(String className) {
+		return registerClass(className, StrategyRegistry.class.getClassLoader());
+	}
+	
+	int registerClass(String className, ClassLoader loader) {
+		Class<? extends Player> type;
+		Constructor<? extends Player> constructor;
+		try {
+			type = Class.forName(className, true, loader).asSubclass(Player.class);
+			boolean inner = type.getEnclosingClass() == ThreePrisonersDilemma.class
+					&& !Modifier.isStatic(type.getModifiers());
+			constructor = inner ? type.getDeclaredConstructor(ThreePrisonersDilemma.class)
+					: type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new RuntimeException("Cannot load strategy " + className, e);
+		}
+		boolean inner = constructor.getParameterCount() == 1;
+		String name = type.getName().substring(type.getName().indexOf('$')+1);
+		return register(name, game -> {
+			try {
+				return inner ? constructor.newInstance(game) : constructor.newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new RuntimeException("Cannot create strategy " + className, e);
+			}
+		});
+	}
+}
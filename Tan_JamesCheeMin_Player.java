@@ -1,7 +1,7 @@
 	class Tan_JamesCheeMin_Player extends Player {
 		double NASTY_THRESHOLD = 0.7;
 		boolean nasty = false;
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		protected int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
 
 			//Get the initial gold mine
 			if (n==0) return 0;
@@ -1,3 +1,14 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 public class ThreePrisonersDilemma {
 	
 	/* 
@@ -13,61 +24,107 @@ public class ThreePrisonersDilemma {
 	 U(DCC) > U(CCC) > U(DDC) > U(CDC) > U(DDD) > U(CDD)
 	 
 	 The payoffs for player 1 are given by the following matrix: */
-	static int wins = 0;
-	static int runnerUp = 0;
-	static int secondRunnerUp = 0;
 	static int[][][] payoff = {  
 		{{6,3},  //payoffs when first and second players cooperate 
 		 {3,0}}, //payoffs when first player coops, second defects
 		{{8,5},  //payoffs when first player defects, second coops
 	     {5,2}}};//payoffs when first and second players defect
 	
+	static final int[] PAYOFF = new int[8];
+	static {
+		for (int i=0; i<8; i++)
+			PAYOFF[i] = payoff[i>>2][(i>>1)&1][i&1];
+	}
+	
 	/* 
 	 So payoff[i][j][k] represents the payoff to player 1 when the first
 	 player's action is i, the second player's action is j, and the
 	 third player's action is k.
 	 
+	 The match engine uses the same table flattened, so that the three
+	 actions pack into one index: PAYOFF[i<<2 | j<<1 | k] == payoff[i][j][k].
+	 
 	 In this simulation, triples of players will play each other repeatedly in a
 	 'match'. A match consists of about 100 rounds, and your score from that match
 	 is the average of the payoffs from each round of that match. For each round, your
 	 strategy is given a list of the previous plays (so you can remember what your 
 	 opponent did) and must compute the next action.  */
 	
-	
-	abstract class Player {
-		// This procedure takes in the number of rounds elapsed so far (n), and 
-		// the previous plays in the match, and returns the appropriate action.
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
-			throw new RuntimeException("You need to override the selectAction method.");
-		}
-		
-		// Used to extract the name of this player class.
-		final String name() {
-			String result = getClass().getName();
-			return result.substring(result.indexOf('$')+1);
-		}
-	}
+	/* Strategies extend Player, and read the plays of the match so far from
+	 History buffers; both are in files of their own. */
 	
 	/* Here are four simple strategies: */
 	
-	class NicePlayer extends Player {
+	class NicePlayer extends Player implements ModelledPlayer {
 		//NicePlayer always cooperates
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		protected boolean isDeterministic() {
+			return true;
+		}
+		
+		protected boolean reset() {
+			return true;
+		}
+		
+		public MarkovModel[] markovModels() {
+			return new MarkovModel[] {MarkovModel.constant(1, 0)};
+		}
+		
+		public FsmTable fsmTable() {
+			return FsmTable.compile(0, s -> 0, (s, my, opp1, opp2) -> 0);
+		}
+		
+		protected long cycleState(int n, History myHistory, History oppHistory1, History oppHistory2) {
+			return 0;
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 			return 0; 
 		}
 	}
 	
-	class NastyPlayer extends Player {
+	class NastyPlayer extends Player implements ModelledPlayer {
 		//NastyPlayer always defects
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		protected boolean isDeterministic() {
+			return true;
+		}
+		
+		protected boolean reset() {
+			return true;
+		}
+		
+		public MarkovModel[] markovModels() {
+			return new MarkovModel[] {MarkovModel.constant(1, 1)};
+		}
+		
+		public FsmTable fsmTable() {
+			return FsmTable.compile(0, s -> 1, (s, my, opp1, opp2) -> 0);
+		}
+		
+		protected long cycleState(int n, History myHistory, History oppHistory1, History oppHistory2) {
+			return 0;
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 			return 1; 
 		}
 	}
 	
-	class RandomPlayer extends Player {
+	class RandomPlayer extends Player implements ModelledPlayer {
 		//RandomPlayer randomly picks his action each time
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
-			if (Math.random() < 0.5)
+		protected boolean reset() {
+			return true;
+		}
+		
+		public MarkovModel[] markovModels() {
+			return new MarkovModel[] {MarkovModel.constant(1, 0.5)};
+		}
+		
+		public FsmTable fsmTable() {
+			return FsmTable.compile(0, s -> 0.5, (s, my, opp1, opp2) -> 0);
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
+			if (random() < 0.5)
 				return 0;  //cooperates half the time
 			else
 				return 1;  //defects half the time
@@ -77,21 +134,17 @@ public class ThreePrisonersDilemma {
 	class TolerantPlayer extends Player {
 		//TolerantPlayer looks at his opponents' histories, and only defects
 		//if at least half of the other players' actions have been defects
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
-			int opponentCoop = 0;
-			int opponentDefect = 0;
-			for (int i=0; i<n; i++) {
-				if (oppHistory1[i] == 0)
-					opponentCoop = opponentCoop + 1;
-				else
-					opponentDefect = opponentDefect + 1;
-			}
-			for (int i=0; i<n; i++) {
-				if (oppHistory2[i] == 0)
-					opponentCoop = opponentCoop + 1;
-				else
-					opponentDefect = opponentDefect + 1;
-			}
+		protected boolean isDeterministic() {
+			return true;
+		}
+		
+		protected boolean reset() {
+			return true;
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
+			int opponentCoop = oppHistory1.cooperations() + oppHistory2.cooperations();
+			int opponentDefect = oppHistory1.defections() + oppHistory2.defections();
 			if (opponentDefect > opponentCoop)
 				return 1;
 			else
@@ -99,76 +152,162 @@ public class ThreePrisonersDilemma {
 		}
 	}
 	
-	class FreakyPlayer extends Player {
+	class FreakyPlayer extends Player implements ModelledPlayer {
 		//FreakyPlayer determines, at the start of the match, 
 		//either to always be nice or always be nasty. 
-		//Note that this class has a non-trivial constructor.
 		int action;
-		FreakyPlayer() {
-			if (Math.random() < 0.5)
-				action = 0;  //cooperates half the time
-			else
-				action = 1;  //defects half the time
+		
+		protected boolean reset() {
+			return true;
+		}
+		
+		public MarkovModel[] markovModels() {
+			return new MarkovModel[] {MarkovModel.constant(0.5, 0), MarkovModel.constant(0.5, 1)};
 		}
 		
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		// 0 before the first round, then 1 + the play it settled on
+		public FsmTable fsmTable() {
+			return FsmTable.compile(0, s -> s == 0 ? 0.5 : s - 1, (s, my, opp1, opp2) -> s == 0 ? 1 + my : s);
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
+			if (n == 0) {
+				if (random() < 0.5)
+					action = 0;  //cooperates half the time
+				else
+					action = 1;  //defects half the time
+			}
 			return action;
 		}	
 	}
 
-	class T4TPlayer extends Player {
+	class T4TPlayer extends Player implements ModelledPlayer {
 		//Picks a random opponent at each play, 
 		//and uses the 'tit-for-tat' strategy against them 
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		protected boolean reset() {
+			return true;
+		}
+		
+		public MarkovModel[] markovModels() {
+			return new MarkovModel[] {MarkovModel.titForTat(0)};
+		}
+		
+		// 0 before the first round, then 1 + the opponents' last plays
+		public FsmTable fsmTable() {
+			return FsmTable.compile(0, s -> s == 0 ? 0 : (((s-1) >> 1) + ((s-1) & 1)) / 2.0,
+					(s, my, opp1, opp2) -> 1 + (opp1 << 1 | opp2));
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 			if (n==0) return 0; //cooperate by default
-			if (Math.random() < 0.5)
-				return oppHistory1[n-1];
+			if (random() < 0.5)
+				return oppHistory1.get(n-1);
 			else
-				return oppHistory2[n-1];
+				return oppHistory2.get(n-1);
 		}	
 	}
 
-	class GT4T extends Player {
+	class GT4T extends Player implements ModelledPlayer {
 		//Picks a random opponent at each play, 
 		//and uses the 'tit-for-tat' strategy against them 
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		protected boolean reset() {
+			return true;
+		}
+		
+		// Bits 6-7: the round, up to 2. Bits 4-5 and 2-3: each opponent's
+		// defections, up to 2. Bits 1 and 0: the opponents' last plays.
+		public FsmTable fsmTable() {
+			return FsmTable.compile(0, s -> {
+				if (s >> 6 < 2) return 0;
+				return ((s >> 4 & 3) >= 2 ? 0.5 * (s >> 1 & 1) : 0) + ((s >> 2 & 3) >= 2 ? 0.5 * (s & 1) : 0);
+			}, (s, my, opp1, opp2) -> Math.min(2, (s >> 6) + 1) << 6 | Math.min(2, (s >> 4 & 3) + opp1) << 4
+					| Math.min(2, (s >> 2 & 3) + opp2) << 2 | opp1 << 1 | opp2);
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 			if (n<=1) return 0; //cooperate by default
-			int sum = 0;
-			if (Math.random() < 0.5){
-				for (int i : oppHistory1)
-					sum += i;
-				if(sum <= 1) return 0;
-				return oppHistory1[n-1];
+			if (random() < 0.5){
+				if(oppHistory1.defections() <= 1) return 0;
+				return oppHistory1.get(n-1);
 			}
 			else{
-				for (int i : oppHistory2)
-					sum += i;
-				if(sum <= 1) return 0;
-				return oppHistory2[n-1];
+				if(oppHistory2.defections() <= 1) return 0;
+				return oppHistory2.get(n-1);
 			}
 		}	
 	}
 
-	class NaiveProber extends Player {
+	class NaiveProber extends Player implements ModelledPlayer {
 		//Picks a random opponent at each play, 
 		//and uses the 'tit-for-tat' strategy against them 
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		protected boolean reset() {
+			return true;
+		}
+		
+		public MarkovModel[] markovModels() {
+			return new MarkovModel[] {MarkovModel.titForTat(0.1)};
+		}
+		
+		// 0 before the first round, then 1 + the opponents' last plays
+		public FsmTable fsmTable() {
+			return FsmTable.compile(0, s -> s == 0 ? 0 : 0.1 + 0.9 * (((s-1) >> 1) + ((s-1) & 1)) / 2.0,
+					(s, my, opp1, opp2) -> 1 + (opp1 << 1 | opp2));
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 			if (n==0) return 0; //cooperate by default
-			if(Math.random()<0.1) return 1;
-			if (Math.random() < 0.5)
-				return oppHistory1[n-1];
+			if(random()<0.1) return 1;
+			if (random() < 0.5)
+				return oppHistory1.get(n-1);
 			else
-				return oppHistory2[n-1];
+				return oppHistory2.get(n-1);
 		}	
 	}
 
-	class TianShunKenneth_Teo_Player extends Player {
+	class TianShunKenneth_Teo_Player extends Player implements ModelledPlayer {
 		// A Tolerant Tit for Tat player that considers action of both
 		// opponents instead of just looking at one.
 	// If opponents are not acting in unison, fall back to being an  
 	// alternator
-	int selectAction(int n, int[] myHistory, int[] oppHistory1,
-			int[] oppHistory2) {
+	protected boolean isDeterministic() {
+		return true;
+	}
+	
+	protected boolean reset() {
+		return true;
+	}
+	
+	// Only the last two rounds matter, except in rounds 98 and 99.
+	protected long cycleState(int n, History myHistory, History oppHistory1,
+			History oppHistory2) {
+		if (n < 2) return NO_CYCLE_STATE;
+		return myHistory.get(n-1) << 4 | oppHistory1.get(n-1) << 3 | oppHistory1.get(n-2) << 2
+			| oppHistory2.get(n-1) << 1 | oppHistory2.get(n-2);
+	}
+	
+	protected int cycleHorizon() {
+		return 98;
+	}
+	
+	// 0 before the first round; 1 + the opponents' first plays before the
+	// second; then 5 + the same bits as cycleState().
+	public FsmTable fsmTable() {
+		return FsmTable.compile(0, s -> {
+			if (s < 5) return 0;
+			long bits = s - 5;
+			if ((bits & 0xf) == 0xf) return 1;
+			if ((bits >> 3 & 1) == (bits >> 1 & 1) && (bits >> 2 & 1) == (bits & 1)) return bits >> 3 & 1;
+			return 1 - (bits >> 4);
+		}, (s, my, opp1, opp2) -> {
+			if (s == 0) return 1 + (opp1 << 1 | opp2);
+			long last1 = s < 5 ? (s-1) >> 1 : (s-5) >> 3 & 1;
+			long last2 = s < 5 ? (s-1) & 1 : (s-5) >> 1 & 1;
+			return 5 + (my << 4 | opp1 << 3 | last1 << 2 | opp2 << 1 | last2);
+		}).force(98, 1).force(99, 1);
+	}
+	
+	protected int selectAction(int n, History myHistory, History oppHistory1,
+			History oppHistory2) {
 	
 			// Cooperate on the first two rounds
 			if (n==0 || n==1) {
@@ -181,19 +320,18 @@ public class ThreePrisonersDilemma {
 					
 			// If both opponents are nasty, turn nasty as well. Only give
 			// two chances before defecting
-			if ((oppHistory1[n-1]==1&&oppHistory1[n-2]==1)
-				&&(oppHistory2[n-1]==1&&oppHistory2[n-2]==1)) {
+			if ((oppHistory1.get(n-1)==1&&oppHistory1.get(n-2)==1)
+				&&(oppHistory2.get(n-1)==1&&oppHistory2.get(n-2)==1)) {
 				return 1;
 			}
 			// If both opponents in synchronisation, possibly Tit for tat, 
 			//   return Tit for tat
-			else if (oppHistory1[n-1] == oppHistory2[n-1] 
-				&& oppHistory1[n-2] == oppHistory2[n-2]) {
-				return oppHistory1[n-1];
+			else if (oppHistory1.agreements(oppHistory2, 2) == 2) {
+				return oppHistory1.get(n-1);
 			}
 			// Opponents not acting in unision, alternate between 0 and 1
 			else {
-				if(myHistory[n-1] == 1) {
+				if(myHistory.get(n-1) == 1) {
 					return 0;
 				} else {
 					return 1;
@@ -206,34 +344,43 @@ public class ThreePrisonersDilemma {
 	class tan_JamesCheeMin extends Player {
 		double NASTY_THRESHOLD = 0.7;
 		boolean nasty = false;
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		
+		protected boolean isDeterministic() {
+			return true;
+		}
+		
+		protected boolean reset() {
+			nasty = false;
+			return true;
+		}
+		
+		// Once nasty, always defects.
+		protected long cycleState(int n, History myHistory, History oppHistory1, History oppHistory2) {
+			return nasty && n > 0 ? 1 : NO_CYCLE_STATE;
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 
 			//Get the initial gold mine
 			if (n==0) return 0;
 
 			//Someone defects previously in rounds 1-4
-			if (n<=3 && (oppHistory1[n-1] + oppHistory2[n-1]) >= 1) return 1;
+			if (n<=3 && (oppHistory1.get(n-1) + oppHistory2.get(n-1)) >= 1) return 1;
 			
 			/*
 			 * Once nasty player is found, turn into another nasty player
 			 * If not found, recheck after 10 rounds
 			 */
 			if(n%10 == 0 && !nasty){
-				double sum = 0;
-				for (int i : oppHistory1)
-					sum += i;
-				if((double)sum/n >= NASTY_THRESHOLD) nasty = true;
-				sum = 0;
-				for (int i : oppHistory2)
-					sum += i;
-				if((double)sum/n >= NASTY_THRESHOLD) nasty = true;
+				if((double)oppHistory1.defections()/n >= NASTY_THRESHOLD) nasty = true;
+				if((double)oppHistory2.defections()/n >= NASTY_THRESHOLD) nasty = true;
 			}
 			if(nasty) return 1;
 
 			/*
 			 * If only 1 of the agents defected previously, time for my agent to defect
 			 */
-			if((oppHistory1[n-1] + oppHistory1[n-1] + myHistory[n-1]) == 1) return 1;
+			if((oppHistory1.get(n-1) + oppHistory1.get(n-1) + myHistory.get(n-1)) == 1) return 1;
 
 			// Cooperate by default
 			return 0;
@@ -256,12 +403,46 @@ public class ThreePrisonersDilemma {
         //After this round, see opp actions to check if they decide to coop again
         int intGrudgeRound = 3;
 
-        int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+        protected boolean isDeterministic() {
+            return true;
+        }
+
+        protected boolean reset() {
+            intPlayer1Defects = 0;
+            intPlayer2Defects = 0;
+            intRoundRetailate = -1;
+            return true;
+        }
+
+        protected long cycleState(int n, History myHistory, History oppHistory1, History oppHistory2) {
+            if (n < intGrudgeRound) {
+                return NO_CYCLE_STATE;
+            }
+            //Only whether any defects are counted matters, and how far back the
+            //retaliation was (up to the round it is checked), plus the plays
+            //of the last intGrudgeRound rounds
+            long retaliate = intRoundRetailate > -1 ? Math.min(n - intRoundRetailate, intGrudgeRound + 2) : intRoundRetailate;
+            long window = 0;
+            for (int intCount = 0; intCount < intGrudgeRound; intCount++) {
+                window = window << 2 | oppHistory1.get(n - 1 - intCount) << 1 | oppHistory2.get(n - 1 - intCount);
+            }
+            return (retaliate + 16) << 16 | (intPlayer1Defects + intPlayer2Defects > 0 ? 1 : 0) << 15 | window;
+        }
+
+        //The retaliation round is absolute, so it moves on with skipped rounds
+        //to keep n - intRoundRetailate the same
+        protected void skipRounds(int rounds) {
+            if (intRoundRetailate > -1) {
+                intRoundRetailate += rounds;
+            }
+        }
+
+        protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 
             //Record Defects count
             if (n > 0) {
-                intPlayer1Defects += oppHistory1[n - 1];
-                intPlayer2Defects += oppHistory2[n - 1];
+                intPlayer1Defects += oppHistory1.get(n - 1);
+                intPlayer2Defects += oppHistory2.get(n - 1);
             }
 
             //Start by cooperating
@@ -282,18 +463,11 @@ public class ThreePrisonersDilemma {
             if (intRoundRetailate > -1 && n == intRoundRetailate + intGrudgeRound + 1) {
 
                 //Count the number of coop during retaliate round to check opp coop level
-                int intPlayer1Coop = 0;
-                int intPlayer2Coop = 0;
-
-                for (int intCount = 0; intCount < intGrudgeRound; intCount++) {
-                    intPlayer1Coop += oppHistory1[n - 1 - intCount] == 0 ? 1 : 0;
-                    intPlayer2Coop += oppHistory2[n - 1 - intCount] == 0 ? 1 : 0;
-                    //intPlayer1Coop += oppHistory1[n - 1 - intCount] == 1 ? 1 : 0;
-                    //intPlayer2Coop += oppHistory2[n - 1 - intCount] == 1 ? 1 : 0;
-                }
+                int intPlayer1Coop = intGrudgeRound - oppHistory1.defections(intGrudgeRound);
+                int intPlayer2Coop = intGrudgeRound - oppHistory2.defections(intGrudgeRound);
 
                 //If both players wish to coop again, start to coop with them
-                if (intPlayer1Coop > 1 && intPlayer2Coop > 1 && (oppHistory1[n - 1] + oppHistory2[n - 1]) == 0) {
+                if (intPlayer1Coop > 1 && intPlayer2Coop > 1 && (oppHistory1.get(n - 1) + oppHistory2.get(n - 1)) == 0) {
                     //Hold round where agent coop to show intention to coop again
                     //Count backwards from -2
                     //-2 indicates 1 round where agent coop to reverse effect of retailation
@@ -328,16 +502,16 @@ public class ThreePrisonersDilemma {
  /* Gosu the Minion -- Note: Gosu the Minion is a NicePlayer */
     class GosuTheMinion extends NicePlayer {
 
-        // For tracking Defect/Cooperate probabilities
-        private double opp1Def = 0;
-        private double opp2Def = 0;
+        // Thresholds (not final, so that -sweep can tune them)
+        double FRIENDLY_THRESHOLD = 0.850;
+        double DEFENSIVE_THRESHOLD = 0.750;
 
-        // Thresholds
-        private static final double FRIENDLY_THRESHOLD = 0.850;
-        private static final double DEFENSIVE_THRESHOLD = 0.750;
+        protected boolean isDeterministic() {
+            return true;
+        }
 
         /* ALL HAIL KING CHODY!! */
-        int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+        protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 
             // Start by cooperating
             if (n == 0) {
@@ -346,28 +520,26 @@ public class ThreePrisonersDilemma {
             }
 
             // Calculate probability for Def/Coop (Opponent 1)
-            opp1Def += oppHistory1[n - 1];
-            double opp1DefProb = opp1Def / oppHistory1.length;
+            double opp1DefProb = (double) oppHistory1.defections() / n;
             double opp1CoopProb = 1.000 - opp1DefProb;
 
             // Calculate probability for Def/Coop (Opponent 2)
-            opp2Def += oppHistory2[n - 1];
-            double opp2DefProb = opp2Def / oppHistory2.length;
+            double opp2DefProb = (double) oppHistory2.defections() / n;
             double opp2CoopProb = 1.000 - opp2DefProb;
 
             /*System.out.printf("Opponent 1: %.3f, %.3f, Opponent 2: %.3f, %.3f%n",
 					opp1CoopProb, opp1DefProb, opp2CoopProb, opp2DefProb);*/
             if (opp1CoopProb >= FRIENDLY_THRESHOLD
                     && opp2CoopProb >= FRIENDLY_THRESHOLD
-                    && oppHistory1[n - 1] == 0
-                    && oppHistory2[n - 1] == 0) {
+                    && oppHistory1.get(n - 1) == 0
+                    && oppHistory2.get(n - 1) == 0) {
 
                 // Good chance that both opponents will cooperate
                 // Just cooperate so that everyone will be happy
                 return 0;
 
             } else if ((opp1DefProb >= DEFENSIVE_THRESHOLD || opp2DefProb >= DEFENSIVE_THRESHOLD)
-                    && (oppHistory1[n - 1] == 1 || oppHistory2[n - 1] == 1)) {
+                    && (oppHistory1.get(n - 1) == 1 || oppHistory2.get(n - 1) == 1)) {
 
                 // Given that one of the opponents have been relatively nasty,
                 // and one of them has defected in the previous turn,
@@ -378,8 +550,8 @@ public class ThreePrisonersDilemma {
             } else if (n >= 2) {
 
                 // Check if either opponent has defected in the last 2 turns
-                if (oppHistory1[n - 1] == 1 || oppHistory2[n - 1] == 1
-                        || oppHistory1[n - 2] == 1 || oppHistory2[n - 2] == 1) {
+                if (oppHistory1.get(n - 1) == 1 || oppHistory2.get(n - 1) == 1
+                        || oppHistory1.get(n - 2) == 1 || oppHistory2.get(n - 2) == 1) {
 
                     // DESTROY them!!
                     return 1;
@@ -401,23 +573,24 @@ public class ThreePrisonersDilemma {
     /* Gosu the Minion */
     class PM_Low extends Player {
 
-        int myScore = 0;
-        int opp1Score = 0;
-        int opp2Score = 0;
+        protected boolean isDeterministic() {
+            return true;
+        }
+
+        protected boolean reset() {
+            return true;
+        }
 
-        int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+        protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 
             if (n == 0) {
                 return 0; // cooperate by default
             }
 
-            // get the recent history index
-            int i = n - 1;
-
-            // add up the total score/points for each player
-            myScore += payoff[myHistory[i]][oppHistory1[i]][oppHistory2[i]];
-            opp1Score += payoff[oppHistory1[i]][oppHistory2[i]][myHistory[i]];
-            opp2Score += payoff[oppHistory2[i]][myHistory[i]][oppHistory1[i]];
+            // the total score/points for each player so far
+            int myScore = myHistory.score();
+            int opp1Score = oppHistory1.score();
+            int opp2Score = oppHistory2.score();
 
             // if my score is lower than the any of them
             // it means that at least one of them have defected
@@ -431,17 +604,36 @@ public class ThreePrisonersDilemma {
         }
     }
 
-	class HardProber extends Player{
+	class HardProber extends Player implements ModelledPlayer {
 		boolean nasty = false;
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		protected boolean reset() {
+			nasty = false;
+			return true;
+		}
+		
+		// 0 and 1: the first two rounds. 2-5: the third round, 2 + whether
+		// each opponent cooperated in the second. 6 and 7: the fourth round,
+		// 7 if nasty. 8-11: 8 + the opponents' last plays. 12: nasty.
+		public FsmTable fsmTable() {
+			return FsmTable.compile(0, s -> s < 2 || s == 12 ? 1 : s < 8 ? 0 : (((s-8) >> 1) + ((s-8) & 1)) / 2.0,
+					(s, my, opp1, opp2) -> {
+				if (s < 1) return 1;
+				if (s < 2) return 2 + ((1-opp1) << 1 | (1-opp2));
+				if (s < 6) return ((s-2) >> 1 == 1 && opp1 == 0) || (((s-2) & 1) == 1 && opp2 == 0) ? 7 : 6;
+				if (s == 7 || s == 12) return 12;
+				return 8 + (opp1 << 1 | opp2);
+			});
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 			if(n==0) return 1;
 			if(n==1) return 1;
 			if(n==2) return 0;
 			if(n==3) return 0;
-			if(oppHistory1[1] == 0 && oppHistory1[2] == 0 || oppHistory2[1] == 0 && oppHistory2[2] == 0) nasty = true;
+			if(oppHistory1.get(1) == 0 && oppHistory1.get(2) == 0 || oppHistory2.get(1) == 0 && oppHistory2.get(2) == 0) nasty = true;
 			if(nasty) return 1;
-			if (Math.random() < 0.5) return oppHistory1[n-1];
-			else return oppHistory2[n-1];
+			if (random() < 0.5) return oppHistory1.get(n-1);
+			else return oppHistory2.get(n-1);
 		}
 	}
 	
@@ -449,9 +641,21 @@ public class ThreePrisonersDilemma {
 		int defect_counter = 0;
 		int defect_queue = 0;
 		int restart_turn = 0;
-		int selectAction(int n, int[] myHistory, int[] oppHistory1, int[] oppHistory2) {
+		protected boolean reset() {
+			defect_counter = 0;
+			defect_queue = 0;
+			restart_turn = 0;
+			return true;
+		}
+		
+		// Its defect counter has no bound short of the length of the match.
+		public FsmTable fsmTable() {
+			return null;
+		}
+		
+		protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
 			if(n==0) return 0;
-			if(oppHistory1[n-1] + oppHistory2[n-1] > 0)  {
+			if(oppHistory1.get(n-1) + oppHistory2.get(n-1) > 0)  {
 				defect_counter++;
 				if(defect_queue == 0) defect_queue = defect_counter;
 				else defect_queue++;
@@ -469,103 +673,1051 @@ public class ThreePrisonersDilemma {
 	}
 	/* In our tournament, each pair of strategies will play one match against each other. 
 	 This procedure simulates a single match and returns the scores. */
+	static final int MAX_ROUNDS = 110;
+	History HistoryA = new History(MAX_ROUNDS), HistoryB = new History(MAX_ROUNDS), HistoryC = new History(MAX_ROUNDS);
+	
+	/* With -noise, every play trembles with probability noise: the player
+	 makes the other play from the one selectAction chose, and the match is
+	 scored, and goes on, with the play it made. Which plays tremble is drawn
+	 up front for the whole match, as a bit per round for each seat, so the
+	 match loop pays only for a shift and an XOR per play, not for a random
+	 number.
+	 
+	 drawFlips() does not draw a number per round either. Each round has a
+	 uniform number u, and trembles if u < noise; the bits of the u of 64
+	 rounds are drawn together, a 64-bit word per bit, highest bit first, and
+	 compared with the bits of noise for all 64 rounds at once. After each
+	 bit, about half the rounds still undecided are decided, so a word takes
+	 about eight draws, whatever the noise. The words come from a hash of the
+	 match's noise seed and of the seat, word and bit, not from a stream, so
+	 how far the comparison goes does not change the numbers after it: every
+	 level of noise sees the same u, and a play that trembles at one level
+	 trembles at every higher one. Several levels of noise in one run (see
+	 run()) so differ only by their noise, as with common random numbers.
+	 
+	 The noise seed is split from the match stream after the players', so the
+	 players draw the same numbers with or without noise. Noisy matches
+	 never repeat, so they are not kept in the MatchCache. */
+	
+	double noise = 0;
+	long[][] flips = new long[3][(MAX_ROUNDS+63) >>> 6]; // flips[seat], a bit per round
+	
+	void drawFlips(long noiseSeed, int rounds) {
+		int words = (rounds+63) >>> 6;
+		if (flips[0].length < words) flips = new long[3][words];
+		long threshold = (long) (noise * (1L << 53)); // noise, to 53 bits
+		for (int s=0; s<3; s++) {
+			for (int w=0; w<words; w++) {
+				long below = 0, undecided = -1L;
+				for (int bit=1; bit<=53 && undecided != 0; bit++) {
+					long u = mix64(noiseSeed + (s << 12 | w << 6 | bit) * 0x9e3779b97f4a7c15L);
+					if ((threshold >>> (53 - bit) & 1) == 1) {
+						below |= undecided & ~u;
+						undecided &= u;
+					} else {
+						undecided &= ~u;
+					}
+				}
+				flips[s][w] = below;
+			}
+		}
+	}
+	
+	// The finalizer of SplitMix64, which SplittableRandom also uses.
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
 	float[] scoresOfMatch(Player A, Player B, Player C, int rounds) {
-		int[] HistoryA = new int[0], HistoryB = new int[0], HistoryC = new int[0];
-		float ScoreA = 0, ScoreB = 0, ScoreC = 0;
+		boolean fastForward = cycles != null && noise == 0 && A.deterministic() && B.deterministic() && C.deterministic();
+		float[] result = playMatch(A, B, C, rounds, fastForward);
+		if (fastForward && verifyCycles && cycles.fastForwarded && !forfeits() && A.reset() && B.reset() && C.reset()) {
+			float[] full = playMatch(A, B, C, rounds, false);
+			if (!Arrays.equals(result, full))
+				throw new RuntimeException("Fast-forward of " + A.name() + ", " + B.name() + " and " + C.name()
+						+ " over " + rounds + " rounds gave " + Arrays.toString(result)
+						+ " instead of " + Arrays.toString(full));
+		}
+		return result;
+	}
+	
+	float[] playMatch(Player A, Player B, Player C, int rounds, boolean fastForward) {
+		if (rounds > HistoryA.capacity()) {
+			HistoryA = new History(rounds);
+			HistoryB = new History(rounds);
+			HistoryC = new History(rounds);
+		}
+		HistoryA.clear();
+		HistoryB.clear();
+		HistoryC.clear();
+		Arrays.fill(forfeited, false);
+		if (fastForward) cycles.start(A, B, C, rounds);
 		boolean verbose = false;
 		// System.out.println("Starting match between " + A.name() + ", " + B.name() + " and " + C.name());
 		for (int i=0; i<rounds; i++) {
-			int PlayA = A.selectAction(i, HistoryA, HistoryB, HistoryC);
-			int PlayB = B.selectAction(i, HistoryB, HistoryC, HistoryA);
-			int PlayC = C.selectAction(i, HistoryC, HistoryA, HistoryB);
-			ScoreA = ScoreA + payoff[PlayA][PlayB][PlayC];
-			ScoreB = ScoreB + payoff[PlayB][PlayC][PlayA];
-			ScoreC = ScoreC + payoff[PlayC][PlayA][PlayB];
-			HistoryA = extendIntArray(HistoryA, PlayA);
-			HistoryB = extendIntArray(HistoryB, PlayB);
-			HistoryC = extendIntArray(HistoryC, PlayC);
+			if (fastForward) {
+				int resume = cycles.check(i, rounds, HistoryA, HistoryB, HistoryC);
+				if (resume == rounds) break;
+				if (resume != i) {
+					i = resume - 1; // the histories now run up to round resume
+					continue;
+				}
+			}
+			int PlayA, PlayB, PlayC;
+			if (profiler == null && guard == null) {
+				PlayA = A.selectAction(i, HistoryA, HistoryB, HistoryC);
+				PlayB = B.selectAction(i, HistoryB, HistoryC, HistoryA);
+				PlayC = C.selectAction(i, HistoryC, HistoryA, HistoryB);
+			} else {
+				PlayA = guardedAction(0, A, i, HistoryA, HistoryB, HistoryC);
+				PlayB = guardedAction(1, B, i, HistoryB, HistoryC, HistoryA);
+				PlayC = guardedAction(2, C, i, HistoryC, HistoryA, HistoryB);
+			}
+			if (noise > 0) {
+				PlayA ^= (int) (flips[0][i >>> 6] >>> i) & 1;
+				PlayB ^= (int) (flips[1][i >>> 6] >>> i) & 1;
+				PlayC ^= (int) (flips[2][i >>> 6] >>> i) & 1;
+			}
+			int PayoffA = PAYOFF[PlayA<<2 | PlayB<<1 | PlayC];
+			int PayoffB = PAYOFF[PlayB<<2 | PlayC<<1 | PlayA];
+			int PayoffC = PAYOFF[PlayC<<2 | PlayA<<1 | PlayB];
+			HistoryA.append(PlayA, PayoffA);
+			HistoryB.append(PlayB, PayoffB);
+			HistoryC.append(PlayC, PayoffC);
 			if (verbose)
 				System.out.println(A.name() + " scored " + payoff[PlayA][PlayB][PlayC] +
 						" points, " + B.name() + " scored " +  payoff[PlayB][PlayC][PlayA] + 
 						" points, and " + C.name() + " scored " + payoff[PlayC][PlayA][PlayB] + " points.");
 		}
+		float ScoreA = HistoryA.score(), ScoreB = HistoryB.score(), ScoreC = HistoryC.score();
+		if (fastForward) {
+			ScoreA += cycles.extraA;
+			ScoreB += cycles.extraB;
+			ScoreC += cycles.extraC;
+		}
 		float[] result = {ScoreA/rounds, ScoreB/rounds, ScoreC/rounds};
 		return result;
 	}
 	
-//	This is a helper function needed by scoresOfMatch.
-	int[] extendIntArray(int[] arr, int next) {
-		int[] result = new int[arr.length+1];
-		for (int i=0; i<arr.length; i++) {
-			result[i] = arr[i];
+	// Set to skip the repeating tail of matches between deterministic players
+	// (see CycleDetector); verifyCycles also plays every such match in full and
+	// checks that the scores agree.
+	CycleDetector cycles = null;
+	boolean verifyCycles = false;
+	
+	// Set by -profile to time every move and count what every match allocates
+	// (see Profiler); each worker has its own.
+	Profiler profiler = null;
+	
+	// Set by -budget: the run's Watchdog, and this worker's slot in it.
+	// forfeited[seat] is set once the player in that seat of the current
+	// match has run over its budget.
+	Watchdog watchdog = null;
+	Watchdog.Slot guard = null;
+	final boolean[] forfeited = new boolean[3];
+	
+	// Set by -metrics: the run's RunMetrics, and this worker's time in it,
+	// from the first chunk it plays.
+	RunMetrics metrics = null;
+	RunMetrics.Worker meter = null;
+	
+	int guardedAction(int seat, Player player, int n, History myHistory, History oppHistory1, History oppHistory2) {
+		if (guard == null) return profiler.selectAction(seat, player, n, myHistory, oppHistory1, oppHistory2);
+		if (forfeited[seat]) return 1;
+		guard.enter(player, n);
+		int action = profiler == null ? player.selectAction(n, myHistory, oppHistory1, oppHistory2)
+				: profiler.selectAction(seat, player, n, myHistory, oppHistory1, oppHistory2);
+		if (guard.exit()) {
+			forfeited[seat] = true;
+			return 1;
 		}
-		result[result.length-1] = next;
-		return result;
+		return action;
+	}
+	
+	// Whether a player forfeited in the match just played, which then does
+	// not show how its players normally play.
+	boolean forfeits() {
+		return forfeited[0] || forfeited[1] || forfeited[2];
 	}
 	
-	/* The procedure makePlayer is used to reset each of the Players 
-	 (strategies) in between matches. When you add your own strategy,
-	 you will need to add a new entry to makePlayer, and change numPlayers.*/
+	/* The strategies in the tournament are kept in a StrategyRegistry, and
+	 referred to by their id in it. When you add your own strategy, you
+	 will need to add a new entry to builtInStrategies, or keep it in a file
+	 of its own and plug it in through StrategyFactory or -player. */
+	
+	static StrategyRegistry builtInStrategies() {
+		StrategyRegistry registry = new StrategyRegistry();
+		registry.register("tan_JamesCheeMin", game -> game.new tan_JamesCheeMin());
+		registry.register("GosuTheMinion", game -> game.new GosuTheMinion());
+		registry.register("PM_Low", game -> game.new PM_Low());
+		registry.register("Bummer", game -> game.new Bummer());
+		registry.register("HardProber", game -> game.new HardProber());
+		registry.register("Tideman", game -> game.new Tideman());
+		registry.register("GT4T", game -> game.new GT4T());
+		registry.register("NaiveProber", game -> game.new NaiveProber());
+		registry.register("TianShunKenneth_Teo_Player", game -> game.new TianShunKenneth_Teo_Player());
+		registry.register("TolerantPlayer", game -> game.new TolerantPlayer());
+		registry.register("NicePlayer", game -> game.new NicePlayer());
+		registry.register("FreakyPlayer", game -> game.new FreakyPlayer());
+		registry.register("NastyPlayer", game -> game.new NastyPlayer());
+		registry.register("RandomPlayer", game -> game.new RandomPlayer());
+		registry.register("T4TPlayer", game -> game.new T4TPlayer());
+		return registry;
+	}
+	
+	StrategyRegistry registry = builtInStrategies();
+	
+	// The player whose placements are counted in TournamentStats.
+	int trackedPlayer = 0;
 	
-	int numPlayers = 15;
 	Player makePlayer(int which) {
-		switch (which) {
-		case 0: return new tan_JamesCheeMin();
-		case 1: return new GosuTheMinion();
-		case 2: return new PM_Low();
-		case 3: return new Bummer();
-		case 4: return new HardProber();
-		case 5: return new Tideman();
-		case 6: return new GT4T();
-		case 7: return new NaiveProber();
-		case 8: return new TianShunKenneth_Teo_Player();
-		case 9: return new TolerantPlayer();
-		case 10: return new NicePlayer();
-		case 11: return new FreakyPlayer();
-		case 12: return new NastyPlayer();
-		case 13: return new RandomPlayer();
-		case 14: return new T4TPlayer();
-		}
-		throw new RuntimeException("Bad argument passed to makePlayer");
+		return registry.create(which, this);
+	}
+	
+	/* Each worker keeps its players and reuses them from match to match, as
+	 long as their reset() allows it. A triple can hold three copies of the
+	 same strategy, so there are three slots for each one. */
+	
+	Player[][] pool = null;
+	
+	Player player(int which, int slot) {
+		Player p = pool[which][slot];
+		if (p == null || !p.reset()) {
+			p = makePlayer(which);
+			pool[which][slot] = p;
+		}
+		return p;
 	}
 	
 	/* Finally, the remaining code actually runs the tournament. */
 	
-	public static void main (String[] args) {
+	public static void main (String[] args) throws InterruptedException, IOException {
+		try {
+			run(args, ThreePrisonersDilemma.class.getClassLoader());
+		} finally {
+			RunMetrics.closeOpen();
+		}
+	}
+	
+	// Runs as main does, with the strategies of -player and the StrategyFactory
+	// services loaded through the given class loader (see TournamentDaemon).
+	static void run(String[] args, ClassLoader loader) throws InterruptedException, IOException {
 		ThreePrisonersDilemma instance = new ThreePrisonersDilemma();
-		for(int count = 0; count < 10000; count++){
-			instance.runTournament();
-			if(count%1000 == 0) System.out.println("Currently at round: " + count);
+		instance.seed = new SplittableRandom().nextLong();
+		int tournaments = 10000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean cache = true;
+		String track = "tan_JamesCheeMin";
+		String record = null;
+		boolean summary = false;
+		StoppingRule rule = new StoppingRule();
+		boolean adaptive = false;
+		boolean batchGiven = false;
+		List<String> sweep = new ArrayList<>();
+		int samples = 0;
+		String store = null;
+		int generations = 0;
+		String trajectory = null;
+		boolean profile = false;
+		List<String> agentCommands = new ArrayList<>();
+		String shard = null;
+		String merge = null;
+		boolean errors = false;
+		String checkpoint = null;
+		double checkpointEvery = 60;
+		boolean resume = false;
+		boolean metrics = false;
+		int metricsPort = 0;
+		double[] noise = {0};
+		for (int a = 0; a < args.length; a++) {
+			switch (args[a]) {
+			case "-tournaments": tournaments = Integer.parseInt(args[++a]); break;
+			case "-threads": threads = Integer.parseInt(args[++a]); break;
+			case "-seed": instance.seed = Long.parseLong(args[++a]); break;
+			case "-nocache": cache = false; break;
+			case "-exact": instance.exact = true; break;
+			case "-fsm": instance.fsm = true; break;
+			case "-agent": agentCommands.add(args[++a]); break;
+			case "-profile": profile = true; break;
+			case "-budget": instance.watchdog = new Watchdog((long) (Double.parseDouble(args[++a]) * 1e6), System.err); break;
+			case "-fastforward": instance.cycles = new CycleDetector(); break;
+			case "-verifycycles": instance.cycles = new CycleDetector(); instance.verifyCycles = true; break;
+			case "-player": instance.registry.registerClass(args[++a], loader); break;
+			case "-track": track = args[++a]; break;
+			case "-record": record = args[++a]; break;
+			case "-summary": summary = true; break;
+			case "-precision": rule.placementPrecision = Double.parseDouble(args[++a]); adaptive = true; break;
+			case "-scoreprecision": rule.scorePrecision = Double.parseDouble(args[++a]); adaptive = true; break;
+			case "-separate": rule.separateRanks = true; adaptive = true; break;
+			case "-batch": rule.batchSize = batchSize(args[++a]); batchGiven = true; break;
+			case "-sweep": sweep.add(args[++a]); break;
+			case "-samples": samples = Integer.parseInt(args[++a]); break;
+			case "-store": store = args[++a]; break;
+			case "-ecological": generations = Integer.parseInt(args[++a]); break;
+			case "-trajectory": trajectory = args[++a]; break;
+			case "-shard": shard = args[++a]; break;
+			case "-rounds": instance.roundSampling = roundSampling(args[++a]); break;
+			case "-crn": instance.commonRounds = true; break;
+			case "-antithetic": instance.antithetic = true; break;
+			case "-noise": noise = noiseLevels(args[++a]); break;
+			case "-se": errors = true; break;
+			case "-checkpoint": checkpoint = args[++a]; break;
+			case "-checkpointevery": checkpointEvery = Double.parseDouble(args[++a]); break;
+			case "-resume": resume = true; break;
+			case "-merge": merge = args[++a]; break;
+			case "-metrics": metrics = true; break;
+			case "-metricsport": metrics = true; metricsPort = Integer.parseInt(args[++a]); break;
+			default: throw new RuntimeException("Unknown argument: " + args[a]);
+			}
+		}
+		instance.registry.loadServices(instance, loader);
+		for (String command : agentCommands)
+			ExternalAgent.register(instance.registry, command);
+		instance.trackedPlayer = instance.registry.id(track);
+		if (instance.trackedPlayer < 0) throw new RuntimeException("No such strategy: " + track);
+		instance.noise = noise[0];
+		if (noise.length > 1) instance.checkpointLabel = "noise " + noise[0];
+		if (Arrays.stream(noise).max().getAsDouble() > 0 && (instance.exact || instance.fsm || instance.cycles != null || !agentCommands.isEmpty()))
+			throw new RuntimeException("-noise cannot be used with -exact, -fsm, -fastforward or -agent");
+		if (noise.length > 1 && (record != null || store != null || shard != null || merge != null || !sweep.isEmpty() || generations > 0))
+			throw new RuntimeException("Several levels of -noise cannot be used with -record, -store, -shard, -merge, -sweep or -ecological");
+		if (cache) instance.matchCache = new MatchCache(instance.registry.size(), 90, 110);
+		if (adaptive) instance.stoppingRule = rule;
+		// The default batch is rounded up to whole blocks
+		int block = instance.sampleBlock();
+		if (adaptive && !batchGiven) rule.batchSize = (rule.batchSize + block - 1) / block * block;
+		if (adaptive && rule.batchSize % instance.sampleBlock() != 0)
+			throw new RuntimeException("-batch must be a multiple of " + block + " with this sampling");
+		if (profile) instance.profiler = new Profiler(instance.registry);
+		if (metrics) {
+			instance.metrics = new RunMetrics(instance.registry);
+			instance.metrics.open(metricsPort);
+		}
+		System.out.println("Seed: " + instance.seed);
+		if (resume && checkpoint == null) throw new RuntimeException("-resume needs -checkpoint");
+		if (resume && store != null) throw new RuntimeException("-resume cannot be used with -store");
+		if (checkpoint != null) {
+			if (shard != null || merge != null || generations > 0)
+				throw new RuntimeException("-checkpoint cannot be used with -shard, -merge or -ecological");
+			instance.checkpoint = new Checkpoint(Paths.get(checkpoint), instance, checkpointEvery);
+			if (resume && !instance.checkpoint.load()) System.out.println("No checkpoint yet in " + checkpoint);
+		}
+		if (!sweep.isEmpty()) {
+			if (record != null) throw new RuntimeException("-record cannot be used with -sweep");
+			if (store != null) throw new RuntimeException("-store cannot be used with -sweep");
+			ParameterSweep parameterSweep = new ParameterSweep(instance);
+			for (String parameter : sweep)
+				parameterSweep.add(parameter);
+			parameterSweep.samples = samples;
+			parameterSweep.run(tournaments, threads, System.out);
+			return;
+		}
+		if (shard != null) {
+			// Plays chunks of the run until none are left, for -merge to add up
+			if (adaptive || record != null || store != null || generations > 0)
+				throw new RuntimeException("-shard cannot be used with -record, -store, -ecological or a stopping rule");
+			ShardQueue queue = new ShardQueue(Paths.get(shard), instance);
+			queue.create(tournaments);
+			System.out.println("Chunks played by this shard: " + queue.play(instance, threads));
+			System.out.println("Chunks not done yet: " + queue.remaining());
+			for (ExternalAgent agent : instance.agentProcesses)
+				agent.close();
+			return;
+		}
+		if (merge != null && (adaptive || store != null || generations > 0))
+			throw new RuntimeException("-merge cannot be used with -store, -ecological or a stopping rule");
+		Checkpoint.Entry saved = instance.checkpoint != null ? instance.checkpoint.get(instance.checkpointLabel) : null;
+		if (saved != null) System.out.println("Resuming after tournament " + saved.next);
+		if (record != null && saved != null) {
+			if (saved.recordLength < 0) throw new RuntimeException("The checkpointed run did not use -record");
+			instance.resultStream = ResultStream.resume(record, saved.recordLength);
+		} else if (record != null) {
+			instance.resultStream = new ResultStream(record, instance.registry, instance.seed);
+		}
+		if (store != null) {
+			instance.matchStore = new MatchStore(Paths.get(store), instance, tournaments);
+			if (instance.matchCache != null) instance.matchStore.load(instance.matchCache);
+			System.out.println("Triples found in the match store: " + instance.matchStore.loaded());
+		}
+		if (generations > 0) {
+			// The tensor is averaged over the matches of the given number of tournaments
+			EcologicalTournament ecological = new EcologicalTournament(instance);
+			ecological.computeTensor(tournaments, threads);
+			if (instance.matchStore != null) instance.matchStore.save(tournaments, instance.matchCache, 90, MAX_ROUNDS);
+			double[][] shares = ecological.evolve(generations);
+			ecological.print(shares, System.out);
+			if (trajectory != null) ecological.write(shares, Paths.get(trajectory));
+			return;
+		}
+		// With several levels of noise, each level is a run of its own, with
+		// the same seed, so the levels share their trembles (see drawFlips)
+		for (int level=0; level<noise.length; level++) {
+			if (noise.length > 1) {
+				instance.noise = noise[level];
+				instance.checkpointLabel = "noise " + noise[level];
+				if (level > 0) System.out.println();
+				System.out.println("Noise: " + noise[level]);
+			}
+			TournamentStats stats;
+			if (merge != null) {
+				ShardQueue queue = new ShardQueue(Paths.get(merge), instance);
+				queue.open();
+				stats = queue.merge(instance.resultStream);
+			} else {
+				stats = instance.runTournaments(tournaments, threads);
+			}
+			if (instance.resultStream != null) instance.resultStream.close();
+			if (instance.matchStore != null) instance.matchStore.save(stats.tournaments, instance.matchCache, 90, MAX_ROUNDS);
+			String name = instance.registry.name(instance.trackedPlayer);
+			if (adaptive) System.out.println("Tournaments played: " + stats.tournaments);
+			System.out.println("Total wins for " + name + ": " + stats.wins);
+			System.out.println("Total 2nd places for " + name + ": " + stats.runnerUp);
+			System.out.println("Total 3rd places for " + name + ": " + stats.secondRunnerUp);
+			if (errors) {
+				String[] places = {"1st", "2nd", "3rd"};
+				for (int place=0; place<3; place++)
+					System.out.printf("%s place rate for %s: %.4f +/- %.4f (standard error)%n", places[place], name,
+							(double) stats.placements(place) / stats.tournaments, stats.placementError(instance.trackedPlayer, place));
+			}
+			if (summary) {
+				System.out.println();
+				stats.printSummary(instance.registry, System.out);
+			}
+		}
+		if (profile) {
+			System.out.println();
+			instance.profiler.total(instance.registry).printSummary(System.out);
+		}
+		if (instance.watchdog != null) {
+			instance.watchdog.close();
+			System.out.println();
+			instance.watchdog.printSummary(System.out);
+		}
+		for (ExternalAgent agent : instance.agentProcesses)
+			agent.close();
+	}
+	
+	// The number of tournaments -batch plays between checks of the stopping
+	// rule, at least one.
+	static int batchSize(String value) {
+		int size = Integer.parseInt(value);
+		if (size <= 0) throw new RuntimeException("-batch must be at least 1: " + size);
+		return size;
+	}
+	
+	// The levels of -noise, separated by commas: each the probability that a
+	// play trembles, from 0 up to but not including 1.
+	static double[] noiseLevels(String list) {
+		double[] levels = Arrays.stream(list.split(",")).mapToDouble(Double::parseDouble).toArray();
+		for (double level : levels)
+			if (!(level >= 0 && level < 1)) throw new RuntimeException("Noise must be at least 0 and below 1: " + level);
+		return levels;
+	}
+	
+	static int roundSampling(String name) {
+		switch (name) {
+		case "legacy": return LEGACY_ROUNDS;
+		case "uniform": return UNIFORM_ROUNDS;
+		case "stratified": return STRATIFIED_ROUNDS;
+		default: throw new RuntimeException("Unknown round sampling: " + name + " (legacy, uniform or stratified)");
 		}
-		System.out.println("Total wins for James: " + wins);
-		System.out.println("Total 2nd places for James: " + runnerUp);
-		System.out.println("Total 3rd places for James: " + secondRunnerUp);
+	}
+	
+	/* All the randomness in a run comes from this seed. Each match gets a stream
+	 of its own, worked out from the seed, the tournament number and the names
+	 of the three players in their seats, so it does not matter which worker
+	 plays the match or what it played before, and a match keeps its stream when
+	 other strategies are added to or taken out of the tournament. */
+	
+	long seed = 0;
+	long[] matchKeys = null; // matchKey() of each triple, in the order they are played
+	
+	// Goes into every MatchStore fingerprint. Bump it whenever a change here
+	// gives a match other scores for the same strategies, seed and rounds:
+	// the streams above, how matches draw their rounds, or how they are
+	// played and scored. Stored results from before are then not used.
+	static final int ENGINE_VERSION = 1;
+	
+	static SplittableRandom matchRandom(long seed, int tournament, long matchKey) {
+		long tournamentSeed = new SplittableRandom(seed + tournament).nextLong();
+		return new SplittableRandom(tournamentSeed + matchKey).split();
+	}
+	
+	static long matchKey(String nameA, String nameB, String nameC) {
+		long a = new SplittableRandom(nameA.hashCode()).nextLong();
+		long b = new SplittableRandom(nameB.hashCode()).nextLong();
+		long c = new SplittableRandom(nameC.hashCode()).nextLong();
+		return new SplittableRandom(a ^ Long.rotateLeft(b, 21) ^ Long.rotateLeft(c, 42)).nextLong();
+	}
+	
+	/* By default every match draws its number of rounds from its own stream,
+	 as 90 + rint(20 * u), which gives 90 and 110 rounds half the weight of
+	 the other lengths. Three options make the estimates of a run less noisy
+	 for the same number of tournaments:
+	 
+	 -rounds uniform      every length from 90 to 110 equally likely.
+	 -rounds stratified   the same weights, but the tournaments go in blocks
+	                      of STRATA, one for each length, and within a block
+	                      every match is played once at every length, in
+	                      shuffled order. With -antithetic the blocks are of
+	                      STRATA pairs, whose first tournaments take the
+	                      lengths and whose second ones mirror them, so every
+	                      length comes up twice.
+	 -crn                 common random numbers: all the matches of a
+	                      tournament have the same length, drawn from the
+	                      tournament's stream (matchRandom with key 0), so no
+	                      strategy is ahead just because its matches were long.
+	 -antithetic          tournaments go in pairs; the second replays the
+	                      match streams of the first, mirrored: its u and every
+	                      random() its players call are one minus those of the
+	                      first, so the pair's errors tend to cancel.
+	 
+	 The draw always takes the first number of the match stream, so the
+	 players' streams are the same in every mode: a run in one mode and a run
+	 in another differ only by what the mode changes. The tournaments of a
+	 block (see sampleBlock()) are not independent, so standard errors, and
+	 the intervals of the stopping rule, are worked out from the spread
+	 between blocks (see TournamentStats.blockError()), and the runners'
+	 chunks are made of whole blocks (see chunkSize()). Agents draw their own
+	 numbers, so their matches are not mirrored. */
+	
+	static final int LEGACY_ROUNDS = 0, UNIFORM_ROUNDS = 1, STRATIFIED_ROUNDS = 2;
+	static final int STRATA = 21; // lengths from 90 to 110
+	int roundSampling = LEGACY_ROUNDS;
+	boolean commonRounds = false;
+	boolean antithetic = false;
+	
+	SplittableRandom matchStream(int tournament, int triple) {
+		return matchRandom(seed, antithetic ? tournament & ~1 : tournament, matchKeys[triple]);
+	}
+	
+	boolean mirrored(int tournament) {
+		return antithetic && (tournament & 1) == 1;
+	}
+	
+	// The number of rounds of a match, taken from the front of its stream.
+	int drawRounds(SplittableRandom random, int tournament, int triple) {
+		double u = random.nextDouble();
+		if (roundSampling == LEGACY_ROUNDS && !commonRounds && !antithetic)
+			return 90 + (int)Math.rint(20 * u); // Between 90 and 110 rounds
+		int original = antithetic ? tournament & ~1 : tournament;
+		long key = commonRounds ? 0 : matchKeys[triple];
+		if (commonRounds) u = matchRandom(seed, original, key).nextDouble();
+		if (roundSampling == STRATIFIED_ROUNDS) {
+			// One length for each stratum. With -antithetic, the pairs of a
+			// block share out the strata, and the mirror image of stratum s is
+			// stratum STRATA-1-s, as it would be for u.
+			int position = (antithetic ? original / 2 : original) % STRATA;
+			int stratum = stratum(tournament / sampleBlock(), key, position);
+			return 90 + (mirrored(tournament) ? STRATA - 1 - stratum : stratum);
+		}
+		if (mirrored(tournament)) u = 1 - u;
+		if (roundSampling == LEGACY_ROUNDS) return 90 + (int)Math.rint(20 * u);
+		return 90 + Math.min((int)(21 * u), 20);
+	}
+	
+	// The stratum of the given position in a block, from a shuffle of the
+	// strata that depends on the seed, the block and the key.
+	private int stratum(int block, long key, int position) {
+		SplittableRandom shuffle = matchRandom(~seed, block, key);
+		int[] order = new int[STRATA];
+		for (int s=0; s<STRATA; s++)
+			order[s] = s;
+		for (int s=STRATA-1; s>0; s--) {
+			int t = shuffle.nextInt(s + 1);
+			int swap = order[s];
+			order[s] = order[t];
+			order[t] = swap;
+		}
+		return order[position];
+	}
+	
+	// The tournaments that go together in the sampling, which TournamentStats
+	// takes as one sample when it works out standard errors.
+	int sampleBlock() {
+		int block = roundSampling == STRATIFIED_ROUNDS ? STRATA : 1;
+		return antithetic ? 2 * block : block;
+	}
+	
+	// CHUNK_SIZE, rounded up to whole blocks of the sampling, so that no
+	// block spans two chunks.
+	int chunkSize() {
+		int block = sampleBlock();
+		return (CHUNK_SIZE + block - 1) / block * block;
+	}
+	
+	// 0 in the default mode; otherwise a number for the mode and the noise,
+	// which is part of the keys of the MatchStore and the ShardQueue.
+	long samplingKey() {
+		long key = roundSampling + (commonRounds ? 4 : 0) + (antithetic ? 8 : 0);
+		if (noise > 0) key ^= Double.doubleToLongBits(noise);
+		return key;
+	}
+	
+	// A new instance with the same settings as this one, for a worker thread.
+	ThreePrisonersDilemma copySettings() {
+		ThreePrisonersDilemma copy = new ThreePrisonersDilemma();
+		copy.seed = seed;
+		copy.verbose = verbose;
+		copy.registry = registry;
+		copy.trackedPlayer = trackedPlayer;
+		copy.keepRecords = resultStream != null;
+		copy.matchCache = matchCache;
+		copy.exact = exact;
+		copy.cycles = cycles == null ? null : new CycleDetector();
+		copy.verifyCycles = verifyCycles;
+		copy.tuned = tuned;
+		copy.fieldScores = fieldScores;
+		copy.matchStore = matchStore;
+		copy.fsm = fsm;
+		copy.roundSampling = roundSampling;
+		copy.commonRounds = commonRounds;
+		copy.antithetic = antithetic;
+		copy.noise = noise;
+		copy.agentProcesses = agentProcesses;
+		copy.profiler = profiler == null ? null : profiler.fork(registry);
+		copy.watchdog = watchdog;
+		copy.guard = watchdog == null ? null : watchdog.slot();
+		copy.metrics = metrics;
+		return copy;
+	}
+	
+	// Where to write every tournament's scores and ranks, if anywhere. Only the
+	// runner writes to it; the workers just keep their records in memory.
+	ResultStream resultStream = null;
+	boolean keepRecords = false;
+	
+	// Set during a parameter sweep (see ParameterSweep). The triples without a
+	// tuned strategy are played once, in a pass with fieldScores null, which
+	// fills in fieldScores; each candidate's pass then starts from those
+	// scores and plays only the triples that include a tuned strategy.
+	boolean[] tuned = null;
+	float[][] fieldScores = null;
+	
+	// If set, matches already in the store are not played again (see MatchStore).
+	MatchStore matchStore = null;
+	
+	// If set, the run may stop before all its tournaments have been played.
+	StoppingRule stoppingRule = null;
+	
+	// If set, the runner saves its progress every so often under the label,
+	// and picks up from the saved progress if there is any (see Checkpoint).
+	Checkpoint checkpoint = null;
+	String checkpointLabel = "run";
+	
+	/* Tournaments are handed out to the worker threads in fixed-size chunks.
+	 Every chunk is played by a single worker, on that worker's own instance,
+	 into a TournamentStats of its own, so the workers share nothing while they
+	 run. The chunks are merged back in order once they are done. */
+	
+	static final int CHUNK_SIZE = 100;
+	
+	// A pool of daemon threads, so that a worker stuck in a call that never
+	// returns (see Watchdog) does not keep the JVM from exiting.
+	static ExecutorService workerPool(int threads) {
+		return Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	// Waits for a worker's task, failing the run if a call has got stuck.
+	<T> T await(Future<T> task) throws InterruptedException, ExecutionException {
+		return watchdog == null ? task.get() : watchdog.await(task);
+	}
+	
+	TournamentStats runTournaments(int tournaments, int threads) throws InterruptedException, IOException {
+		ExecutorService pool = workerPool(threads);
+		ThreadLocal<ThreePrisonersDilemma> instance = ThreadLocal.withInitial(this::copySettings);
+		try {
+			TournamentStats total = new TournamentStats(registry.size());
+			int next = 0;
+			Checkpoint.Entry saved = checkpoint != null ? checkpoint.get(checkpointLabel) : null;
+			if (saved != null) {
+				total = saved.stats;
+				next = saved.next;
+				// A run that stopped between a batch and its check would have
+				// checked first
+				if (stoppingRule != null && next > 0 && next % stoppingRule.batchSize == 0 && stoppingRule.satisfied(total))
+					return total;
+			}
+			if (metrics != null) metrics.begin(Math.max(tournaments - next, 0));
+			while (next < tournaments) {
+				// With a stopping rule, play one batch at a time and check the rule
+				// after each; otherwise the whole run is one batch.
+				int end = stoppingRule == null ? tournaments
+						: Math.min((next / stoppingRule.batchSize + 1) * stoppingRule.batchSize, tournaments);
+				List<Future<TournamentStats>> chunks = new ArrayList<>();
+				for (int start = next; start < end; start += chunkSize()) {
+					int first = start, last = Math.min(start + chunkSize(), end);
+					chunks.add(pool.submit(() -> instance.get().runChunk(first, last)));
+				}
+				for (Future<TournamentStats> chunk : chunks) {
+					if (total.tournaments % 1000 < chunkSize()) System.out.println("Currently at round: " + total.tournaments);
+					TournamentStats done;
+					try {
+						done = await(chunk);
+					} catch (ExecutionException e) {
+						throw new RuntimeException("Tournament worker failed", e.getCause());
+					}
+					total.merge(done);
+					if (metrics != null) metrics.standings(total);
+					if (resultStream != null) resultStream.write(done.records);
+					if (checkpoint != null && checkpoint.due()) checkpoint.save(checkpointLabel, total, resultStream);
+				}
+				next = end;
+				if (stoppingRule != null) {
+					System.out.println(stoppingRule.progress(total));
+					if (stoppingRule.satisfied(total)) break;
+				}
+			}
+			if (checkpoint != null) checkpoint.save(checkpointLabel, total, resultStream);
+			return total;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	// Plays tournaments first (inclusive) to last (exclusive) on this instance.
+	TournamentStats runChunk(int first, int last) {
+		TournamentStats stats = new TournamentStats(registry.size());
+		stats.blockSize = sampleBlock();
+		if (keepRecords) stats.keepRecords();
+		if (metrics != null) {
+			if (meter == null) meter = metrics.worker();
+			meter.startChunk();
+		}
+		playBatches(first, last);
+		for (int count = first; count < last; count++) {
+			runTournament(count, stats);
+			if (metrics != null) metrics.tournaments.increment();
+		}
+		batchScores = null;
+		if (metrics != null) meter.endChunk();
+		return stats;
 	}
 	
 	boolean verbose = false; // set verbose = false if you get too much text output
 	
-	void runTournament() {
-		float[] totalScore = new float[numPlayers];
+	// Shared between the workers of a run; null to play every match in full.
+	MatchCache matchCache = null;
+	boolean[] deterministic = null; // which players say isDeterministic()
+	
+	// In exact mode, matches between players that all have Markov models are
+	// not played: each player is given its expected score for the match instead.
+	boolean exact = false;
+	MarkovModel[][] markov = null;
+	
+	// With fsm set, the matches between players that all have state machines
+	// are played for a whole chunk of tournaments at a time, before the chunk's
+	// tournaments are scored. The random numbers of such matches come from the
+	// match stream but are drawn differently, so a seeded run gives other
+	// results with fsm than without. Matches that go through the MatchCache
+	// are left to it.
+	boolean fsm = false;
+	FsmTable[] fsmTables = null;
+	
+	// The commands of the strategies that are agents (see ExternalAgent), and
+	// this worker's process for each. Every worker's processes are also in
+	// agentProcesses, shared by the run, so they can all be stopped at the end.
+	String[] agentCommands = null;
+	ExternalAgent[] agents = null;
+	List<ExternalAgent> agentProcesses = new ArrayList<>();
+	
+	// Scores of the matches played a chunk at a time, by playTables() and
+	// playAgents(): batchScores[triple][3*(tournament - batchFirst) + seat],
+	// or null for triples that are played one match at a time.
+	float[][] batchScores = null;
+	int batchFirst = 0;
+	
+	void playBatches(int first, int last) {
+		preparePlayers();
+		batchFirst = first;
+		batchScores = new float[matchKeys.length][];
+		if (fsm) playTables(first, last);
+		playAgents(first, last);
+	}
+	
+	void runTournament(int tournament, TournamentStats stats) {
+		if (profiler != null) profiler.startTournament(tournament);
+		rankTournament(tournament, scoreTournament(tournament), stats);
+		if (profiler != null) profiler.endTournament();
+	}
+	
+	// Plays every triple of one tournament and returns each player's total.
+	float[] scoreTournament(int tournament) {
+		int numPlayers = registry.size();
+		float[] totalScore = fieldScores != null ? fieldScores[tournament].clone() : new float[numPlayers];
 
 		// This loop plays each triple of players against each other.
 		// Note that we include duplicates: two copies of your strategy will play once
 		// against each other strategy, and three copies of your strategy will play once.
 
+		preparePlayers();
+		int triple = 0;
 		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
 
-			Player A = makePlayer(i); // Create a fresh copy of each player
-			Player B = makePlayer(j);
-			Player C = makePlayer(k);
-			int rounds = 90 + (int)Math.rint(20 * Math.random()); // Between 90 and 110 rounds
-			float[] matchResults = scoresOfMatch(A, B, C, rounds); // Run match
+			int index = triple++;
+			if (tuned != null && (tuned[i] || tuned[j] || tuned[k]) != (fieldScores != null))
+				continue; // this triple is played in the other pass of the sweep
+			float[] matchResults = scoreTriple(index, i, j, k, tournament);
 			totalScore[i] = totalScore[i] + matchResults[0];
 			totalScore[j] = totalScore[j] + matchResults[1];
 			totalScore[k] = totalScore[k] + matchResults[2];
 			if (verbose)
-				System.out.println(A.name() + " scored " + matchResults[0] +
-						" points, " + B.name() + " scored " + matchResults[1] + 
-						" points, and " + C.name() + " scored " + matchResults[2] + " points.");
+				System.out.println(registry.name(i) + " scored " + matchResults[0] +
+						" points, " + registry.name(j) + " scored " + matchResults[1] + 
+						" points, and " + registry.name(k) + " scored " + matchResults[2] + " points.");
 		}
+		return totalScore;
+	}
+	
+	// The sums of each triple's scores over tournaments first (inclusive) to
+	// last (exclusive), three to a triple, in the order the triples are played.
+	double[] sumTriples(int first, int last) {
+		int numPlayers = registry.size();
+		preparePlayers();
+		playBatches(first, last);
+		double[] sums = new double[3 * matchKeys.length];
+		for (int tournament = first; tournament < last; tournament++) {
+			int triple = 0;
+			for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+				float[] matchResults = scoreTriple(triple, i, j, k, tournament);
+				sums[3*triple] += matchResults[0];
+				sums[3*triple+1] += matchResults[1];
+				sums[3*triple+2] += matchResults[2];
+				triple++;
+			}
+		}
+		batchScores = null;
+		return sums;
+	}
+	
+	// Sets up the player pool and what is known about each strategy, the first
+	// time this instance plays.
+	void preparePlayers() {
+		int numPlayers = registry.size();
+		if (pool == null) {
+			pool = new Player[numPlayers][3];
+			deterministic = new boolean[numPlayers];
+			markov = new MarkovModel[numPlayers][];
+			fsmTables = new FsmTable[numPlayers];
+			for (int i=0; i<numPlayers; i++) {
+				deterministic[i] = player(i, 0).deterministic();
+				markov[i] = ModelledPlayer.modelsOf(player(i, 0));
+				if (fsm) fsmTables[i] = ModelledPlayer.tableOf(player(i, 0));
+			}
+			agentCommands = new String[numPlayers];
+			agents = new ExternalAgent[numPlayers];
+			for (int i=0; i<numPlayers; i++)
+				if (player(i, 0) instanceof ExternalAgent.AgentPlayer)
+					agentCommands[i] = ((ExternalAgent.AgentPlayer) player(i, 0)).command;
+			matchKeys = new long[numPlayers * (numPlayers+1) * (numPlayers+2) / 6];
+			int triple = 0;
+			for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++)
+				matchKeys[triple++] = matchKey(registry.name(i), registry.name(j), registry.name(k));
+		}
+	}
+	
+	// Plays the matches of tournaments first (inclusive) to last (exclusive)
+	// between players that all have state machines, a triple at a time.
+	void playTables(int first, int last) {
+		int numPlayers = registry.size();
+		int triple = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			int index = triple++;
+			if (fsmTables[i] == null || fsmTables[j] == null || fsmTables[k] == null || cacheable(i, j, k))
+				continue;
+			if (tuned != null && (tuned[i] || tuned[j] || tuned[k]) != (fieldScores != null))
+				continue;
+			if (matchStore != null && matchStore.get(index, last-1) != null)
+				continue;
+			int[] rounds = new int[last - first];
+			long[] seeds = new long[3 * (last - first)];
+			boolean[] mirrored = new boolean[last - first];
+			for (int m=0; m<rounds.length; m++) {
+				SplittableRandom random = matchStream(first + m, index);
+				rounds[m] = drawRounds(random, first + m, index);
+				seeds[3*m] = random.nextLong();
+				seeds[3*m+1] = random.nextLong();
+				seeds[3*m+2] = random.nextLong();
+				mirrored[m] = mirrored(first + m);
+			}
+			batchScores[index] = FsmTable.play(fsmTables[i], fsmTables[j], fsmTables[k], rounds, seeds, mirrored);
+		}
+	}
+	
+	// Plays the matches of tournaments first (inclusive) to last (exclusive)
+	// that have an agent in them, all side by side, a round at a time, so that
+	// every agent gets one frame per round (see ExternalAgent). The other
+	// players in these matches are made for the match, not taken from the pool.
+	void playAgents(int first, int last) {
+		int numPlayers = registry.size();
+		List<int[]> matches = new ArrayList<>(); // {triple, tournament, i, j, k}
+		int triple = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			int index = triple++;
+			if (agentCommands[i] == null && agentCommands[j] == null && agentCommands[k] == null)
+				continue;
+			if (tuned != null && (tuned[i] || tuned[j] || tuned[k]) != (fieldScores != null))
+				continue;
+			if (matchStore != null && matchStore.get(index, last-1) != null)
+				continue;
+			batchScores[index] = new float[3 * (last - first)];
+			for (int tournament = first; tournament < last; tournament++)
+				matches.add(new int[] {index, tournament, i, j, k});
+		}
+		if (matches.isEmpty()) return;
+		
+		int count = matches.size();
+		int[] rounds = new int[count];
+		Player[][] players = new Player[count][3];
+		int[][] ids = new int[count][3];
+		History[][] histories = new History[count][3];
+		int[][] plays = new int[count][3];
+		int most = 0;
+		try {
+			for (int m=0; m<count; m++) {
+				int[] match = matches.get(m);
+				SplittableRandom random = matchStream(match[1], match[0]);
+				rounds[m] = drawRounds(random, match[1], match[0]);
+				most = Math.max(most, rounds[m]);
+				for (int s=0; s<3; s++) {
+					SplittableRandom rng = random.split();
+					int who = match[2+s];
+					if (agentCommands[who] != null) ids[m][s] = agent(who).start(rng.nextLong());
+					else {
+						players[m][s] = makePlayer(who);
+						players[m][s].rng = rng;
+						players[m][s].mirrored = mirrored(match[1]);
+					}
+					histories[m][s] = new History(rounds[m]);
+				}
+			}
+			
+			for (int round=0; round<most; round++) {
+				// Ask the agents first, so they work while the other players play
+				for (int m=0; m<count; m++) {
+					if (round >= rounds[m]) continue;
+					for (int s=0; s<3; s++)
+						if (players[m][s] == null)
+							agent(matches.get(m)[2+s]).ask(ids[m][s], round == 0 ? 0 : seatPlays(histories[m], s, round-1));
+				}
+				byte[][] replies = new byte[numPlayers][];
+				for (int who=0; who<numPlayers; who++)
+					if (agents[who] != null) agents[who].send();
+				for (int m=0; m<count; m++) {
+					if (round >= rounds[m]) continue;
+					for (int s=0; s<3; s++)
+						if (players[m][s] != null)
+							plays[m][s] = players[m][s].selectAction(round, histories[m][s], histories[m][(s+1)%3], histories[m][(s+2)%3]);
+				}
+				int[] next = new int[numPlayers];
+				for (int who=0; who<numPlayers; who++)
+					if (agents[who] != null) replies[who] = agents[who].receive();
+				for (int m=0; m<count; m++) {
+					if (round >= rounds[m]) continue;
+					int[] match = matches.get(m);
+					for (int s=0; s<3; s++)
+						if (players[m][s] == null)
+							plays[m][s] = replies[match[2+s]][next[match[2+s]]++];
+					int a = plays[m][0], b = plays[m][1], c = plays[m][2];
+					histories[m][0].append(a, PAYOFF[a<<2 | b<<1 | c]);
+					histories[m][1].append(b, PAYOFF[b<<2 | c<<1 | a]);
+					histories[m][2].append(c, PAYOFF[c<<2 | a<<1 | b]);
+					if (round == rounds[m] - 1) {
+						int lane = 3 * (match[1] - first);
+						for (int s=0; s<3; s++) {
+							batchScores[match[0]][lane + s] = (float) histories[m][s].score() / rounds[m];
+							if (players[m][s] == null) agent(match[2+s]).end(ids[m][s]);
+						}
+					}
+				}
+			}
+			// Let the agents forget the last matches
+			for (int who=0; who<numPlayers; who++) {
+				if (agents[who] == null) continue;
+				agents[who].send();
+				agents[who].receive();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Agent failed", e);
+		}
+	}
+	
+	// The plays of a round as the player in the given seat sees them.
+	private static int seatPlays(History[] histories, int seat, int round) {
+		return histories[seat].get(round) << 2 | histories[(seat+1)%3].get(round) << 1 | histories[(seat+2)%3].get(round);
+	}
+	
+	// This worker's process for an agent, started the first time it is needed.
+	ExternalAgent agent(int who) throws IOException {
+		if (agents[who] == null) {
+			agents[who] = new ExternalAgent(ExternalAgent.parseCommand(agentCommands[who]));
+			synchronized (agentProcesses) {
+				agentProcesses.add(agents[who]);
+			}
+		}
+		return agents[who];
+	}
+	
+	// Whether the match of i, j and k only depends on its number of rounds,
+	// so that the MatchCache can keep it.
+	boolean cacheable(int i, int j, int k) {
+		boolean analytic = exact && markov[i] != null && markov[j] != null && markov[k] != null;
+		return matchCache != null && noise == 0 && (analytic || deterministic[i] && deterministic[j] && deterministic[k]);
+	}
+	
+	// The scores of players i, j and k in their match of the given tournament.
+	// The triple is the position of (i, j, k) in the order they are played.
+	float[] scoreTriple(int triple, int i, int j, int k, int tournament) {
+		if (metrics != null) metrics.matches.increment();
+		float[] matchResults = matchStore != null ? matchStore.get(triple, tournament) : null;
+		if (matchResults != null) {
+			if (metrics != null) metrics.storeHits.increment();
+			return matchResults;
+		}
+		if (batchScores != null && batchScores[triple] != null) {
+			int m = 3 * (tournament - batchFirst);
+			matchResults = Arrays.copyOfRange(batchScores[triple], m, m + 3);
+			if (matchStore != null) matchStore.put(triple, tournament, matchResults);
+			return matchResults;
+		}
+		SplittableRandom random = matchStream(tournament, triple);
+		int rounds = drawRounds(random, tournament, triple);
+		boolean analytic = exact && markov[i] != null && markov[j] != null && markov[k] != null;
+		boolean cached = cacheable(i, j, k);
+		matchResults = cached ? matchCache.get(i, j, k, rounds) : null;
+		if (cached && metrics != null) (matchResults != null ? metrics.cacheHits : metrics.cacheMisses).increment();
+		if (matchResults == null && analytic) {
+			matchResults = MarkovModel.expectedScores(markov[i], markov[j], markov[k], rounds);
+			if (cached) matchCache.put(i, j, k, rounds, matchResults);
+		}
+		if (matchResults == null) {
+			Player A = player(i, 0); // Get a fresh or reset copy of each player
+			Player B = player(j, 1);
+			Player C = player(k, 2);
+			A.rng = random.split();
+			B.rng = random.split();
+			C.rng = random.split();
+			A.mirrored = B.mirrored = C.mirrored = mirrored(tournament);
+			if (noise > 0) drawFlips(random.split().nextLong(), rounds);
+			if (profiler != null) profiler.startMatch(triple, i, j, k);
+			matchResults = scoresOfMatch(A, B, C, rounds); // Run match
+			if (profiler != null) profiler.endMatch(rounds, matchResults);
+			if (forfeits()) return matchResults; // not to be reused
+			if (cached) matchCache.put(i, j, k, rounds, matchResults);
+		}
+		// Matches in the cache are stored by their number of rounds instead
+		if (matchStore != null && !cached) matchStore.put(triple, tournament, matchResults);
+		return matchResults;
+	}
+	
+	void rankTournament(int tournament, float[] totalScore, TournamentStats stats) {
+		int numPlayers = registry.size();
 		int[] sortedOrder = new int[numPlayers];
 		// This loop sorts the players by their score.
 		for (int i=0; i<numPlayers; i++) {
@@ -582,18 +1734,20 @@ public class ThreePrisonersDilemma {
 		if (verbose) System.out.println();
 		// System.out.println("Tournament Results");
 		// for (int i=0; i<numPlayers; i++) 
-		// 	System.out.println(makePlayer(sortedOrder[i]).name() + ": " 
+		// 	System.out.println(registry.name(sortedOrder[i]) + ": " 
 		// 		+ totalScore[sortedOrder[i]] + " points.");
 
-		if(makePlayer(sortedOrder[0]).name().equals("tan_JamesCheeMin")) {
-			wins++;
+		stats.record(tournament, totalScore, sortedOrder);
+		if(sortedOrder[0] == trackedPlayer) {
+			stats.wins++;
 		}
-		if(makePlayer(sortedOrder[1]).name().equals("tan_JamesCheeMin")) {
-			runnerUp++;
+		if(sortedOrder[1] == trackedPlayer) {
+			stats.runnerUp++;
 		}
-		if(makePlayer(sortedOrder[2]).name().equals("tan_JamesCheeMin")) {
-			secondRunnerUp++;
+		if(sortedOrder[2] == trackedPlayer) {
+			stats.secondRunnerUp++;
 		}
+		stats.tournaments++;
 	} // end of runTournament()
 	
 } // end of class PrisonersDilemma
@@ -0,0 +1,349 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ Keeps a JVM with the tournament in it running, so that every run after the
+ first skips the JVM's start-up and the JIT's warm-up. Start it with
+
+   java TournamentDaemon serve [-dir D] [-strategies DIR] [-files F]
+
+ and play runs through it with
+
+   java TournamentDaemon run [-dir D] ARGS...
+
+ where ARGS are whatever ThreePrisonersDilemma takes; the output comes back as
+ it is printed, and the client exits with 1 if the run failed.
+ java TournamentDaemon stop [-dir D] shuts the daemon down. It plays one run
+ at a time, since a run uses every core.
+
+ A run plays whatever it is asked to as the daemon's user, so only that user
+ may ask. The daemon listens on a Unix-domain socket in D (by default
+ .tournament-daemon in the home directory), and D must be private to that
+ user (mode 700): the daemon makes it so if it makes D, and refuses to start
+ otherwise. Even so, a run through the daemon may not use -agent, which
+ starts a program of the client's choosing, and the paths given to -record,
+ -store and the other file options are taken relative to F (by default the
+ directory the daemon was started in) and may not lead out of it.
+
+ DIR holds compiled strategies, such as Tan_JamesCheeMin_Player.class, for
+ -player and for StrategyFactory services. They are loaded through a class
+ loader of the daemon's own, which takes Player subclasses, and classes only
+ DIR has, from DIR, and everything else from the daemon, so the strategies
+ always share Player and History with the engine. Before each run the daemon
+ looks at the class files in DIR: if none has changed since the last run,
+ the run reuses the last loader, and the strategies' compiled code is as warm
+ as the engine's; otherwise it gets a new loader with the new classes, and
+ the old ones are left to the garbage collector.
+
+ The client sends
+   int    MAGIC
+   int    VERSION
+   byte   'R' to play a run, 'S' to stop the daemon
+   int    number of arguments
+   UTF    each argument
+ and the daemon answers with the output in frames, each an int length and
+ that many bytes, then an int -1 and the status: 0 if the run finished, 1 if
+ it failed. */
+
+class TournamentDaemon {
+	static final int MAGIC = 0x33504456; // "3PDV"
+	static final int VERSION = 1;
+	static final Path DEFAULT_DIR = Paths.get(System.getProperty("user.home"), ".tournament-daemon");
+	static final Set<String> PATH_OPTIONS = Set.of("-record", "-store", "-trajectory", "-shard", "-merge", "-checkpoint");
+	static final Set<String> REFUSED_OPTIONS = Set.of("-agent");
+
+	final Path strategies; // null to only use the daemon's own class path
+	final Path files;      // where the file options of a run must stay
+	private ClassLoader loader;
+	private long stamp = 0;
+
+	/* Child first for strategies, parent first for the rest. A class in DIR
+	 that the daemon has too is only taken from DIR if it is a strategy: the
+	 engine's classes, Player among them, must be the daemon's. */
+
+	static class StrategyLoader extends URLClassLoader {
+		StrategyLoader(Path dir, ClassLoader parent) throws IOException {
+			super(new URL[] { dir.toUri().toURL() }, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> type = findLoadedClass(name);
+				if (type == null && findResource(name.replace('.', '/') + ".class") != null) {
+					Class<?> shared;
+					try {
+						shared = getParent().loadClass(name);
+					} catch (ClassNotFoundException e) {
+						shared = null;
+					}
+					boolean strategy = shared != null && shared != Player.class && Player.class.isAssignableFrom(shared);
+					type = shared == null || strategy ? findClass(name) : shared;
+				}
+				if (type == null) return super.loadClass(name, resolve);
+				if (resolve) resolveClass(type);
+				return type;
+			}
+		}
+	}
+
+	TournamentDaemon(Path strategies, Path files) throws IOException {
+		this.strategies = strategies;
+		this.files = files.toRealPath();
+		loader = TournamentDaemon.class.getClassLoader();
+	}
+
+	// The loader for the next run: the last one, unless a class file in the
+	// strategies directory has changed.
+	ClassLoader loader() throws IOException {
+		if (strategies == null) return loader;
+		long now = stamp(strategies);
+		if (now != stamp || !(loader instanceof StrategyLoader)) {
+			if (loader instanceof StrategyLoader) {
+				System.out.println("Strategies in " + strategies + " have changed; loading them again");
+				((StrategyLoader) loader).close();
+			}
+			loader = new StrategyLoader(strategies, TournamentDaemon.class.getClassLoader());
+			stamp = now;
+		}
+		return loader;
+	}
+
+	// A hash of the names, sizes and times of the class files in dir.
+	private static long stamp(Path dir) throws IOException {
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(dir)) {
+			files = walk.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+		}
+		long stamp = files.size();
+		for (Path file : files) {
+			long key = file.toString().hashCode() ^ Files.size(file) * 31 ^ Files.getLastModifiedTime(file).toMillis() * 961;
+			stamp = new SplittableRandom(stamp ^ key).nextLong();
+		}
+		return stamp;
+	}
+
+	void serve(Path dir) throws IOException {
+		Path socket = socket(dir);
+		if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+			SocketChannel probe = null;
+			try {
+				probe = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+			} catch (IOException e) {
+				// nothing is listening
+			}
+			if (probe != null) {
+				probe.close();
+				throw new IOException("A daemon is already listening on " + socket);
+			}
+			Files.delete(socket); // left behind by a daemon that was killed
+		}
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(socket));
+			System.out.println("Listening on " + socket);
+			while (true) {
+				try (SocketChannel channel = server.accept()) {
+					if (!handle(channel)) return;
+				} catch (EOFException e) {
+					// closed without a request, as by serve() checking for a daemon
+				} catch (IOException e) {
+					System.err.println("Request failed: " + e);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(socket);
+		}
+	}
+
+	// The socket in dir, after making sure that dir is a directory only its
+	// owner, who must be this user, can get into.
+	static Path socket(Path dir) throws IOException {
+		Set<PosixFilePermission> owner = PosixFilePermissions.fromString("rwx------");
+		if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS))
+			Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(owner));
+		if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) throw new IOException(dir + " is not a directory");
+		PosixFileAttributes attributes = Files.readAttributes(dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		UserPrincipal user = dir.getFileSystem().getUserPrincipalLookupService()
+				.lookupPrincipalByName(System.getProperty("user.name"));
+		if (!attributes.owner().equals(user) || !attributes.permissions().equals(owner))
+			throw new IOException(dir + " must belong to " + user.getName() + " and be private to it (chmod 700)");
+		return dir.resolve("socket");
+	}
+
+	// Plays one request. Returns false when asked to stop.
+	private boolean handle(SocketChannel channel) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 13));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("not a tournament client");
+		int command = in.readByte();
+		String[] args = new String[in.readInt()];
+		for (int a=0; a<args.length; a++)
+			args[a] = in.readUTF();
+		if (command == 'S') {
+			out.writeInt(-1);
+			out.writeInt(0);
+			out.flush();
+			return false;
+		}
+
+		PrintStream client = new PrintStream(new BufferedOutputStream(new Frames(out), 1 << 13), true);
+		String refused = refusal(args);
+		if (refused != null) {
+			client.println("Refused: " + refused);
+			client.flush();
+			System.out.println(String.join(" ", args) + ": refused, " + refused);
+			out.writeInt(-1);
+			out.writeInt(1);
+			out.flush();
+			return true;
+		}
+		PrintStream stdout = System.out, stderr = System.err;
+		int status = 0;
+		long start = System.nanoTime();
+		System.setOut(client);
+		System.setErr(client);
+		try {
+			ThreePrisonersDilemma.run(args, loader());
+		} catch (Exception | LinkageError e) {
+			e.printStackTrace(client);
+			status = 1;
+		} finally {
+			RunMetrics.closeOpen();
+			client.flush();
+			System.setOut(stdout);
+			System.setErr(stderr);
+		}
+		System.out.printf("%s: %s in %.3f s%n", String.join(" ", args), status == 0 ? "done" : "failed",
+				(System.nanoTime() - start) / 1e9);
+		out.writeInt(-1);
+		out.writeInt(status);
+		out.flush();
+		return true;
+	}
+
+	// Why the run cannot be played through the daemon, or null if it can.
+	// The paths of file options are replaced with where they lead in files.
+	String refusal(String[] args) throws IOException {
+		for (int a=0; a<args.length; a++) {
+			if (REFUSED_OPTIONS.contains(args[a])) return args[a] + " cannot be used through the daemon";
+			if (!PATH_OPTIONS.contains(args[a]) || a+1 >= args.length) continue;
+			Path path = files.resolve(args[a+1]).normalize();
+			// The part of the path that exists, with its links followed
+			Path existing = path;
+			while (existing != null && !Files.exists(existing)) existing = existing.getParent();
+			if (!path.startsWith(files) || existing == null || !existing.toRealPath().startsWith(files))
+				return args[a] + " " + args[a+1] + " is outside " + files;
+			args[++a] = path.toString();
+		}
+		return null;
+	}
+
+	// Output to the client, as length-prefixed frames.
+	private static class Frames extends OutputStream {
+		private final DataOutputStream out;
+
+		Frames(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			out.writeInt(length);
+			out.write(bytes, offset, length);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	// Sends a request and copies the output to System.out. Returns the status.
+	static int request(Path dir, int command, String[] args) throws IOException {
+		try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket(dir)))) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(command);
+			out.writeInt(args.length);
+			for (String arg : args)
+				out.writeUTF(arg);
+			out.flush();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			for (int length = in.readInt(); length >= 0; length = in.readInt()) {
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				System.out.write(bytes);
+				System.out.flush();
+			}
+			return in.readInt();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) usage();
+		Path dir = DEFAULT_DIR;
+		String strategies = null;
+		String files = ".";
+		int a = 1;
+		for (; a < args.length; a++) {
+			if (args[a].equals("-dir") && a+1 < args.length) dir = Paths.get(args[++a]);
+			else if (args[0].equals("serve") && args[a].equals("-strategies") && a+1 < args.length) strategies = args[++a];
+			else if (args[0].equals("serve") && args[a].equals("-files") && a+1 < args.length) files = args[++a];
+			else break;
+		}
+		switch (args[0]) {
+		case "serve":
+			if (a < args.length) usage();
+			new TournamentDaemon(strategies == null ? null : Paths.get(strategies), Paths.get(files)).serve(dir);
+			break;
+		case "run":
+			System.exit(request(dir, 'R', Arrays.copyOfRange(args, a, args.length)));
+			break;
+		case "stop":
+			request(dir, 'S', new String[0]);
+			break;
+		default:
+			usage();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java TournamentDaemon serve [-dir D] [-strategies DIR] [-files F]");
+		System.err.println("       java TournamentDaemon run [-dir D] ARGS...");
+		System.err.println("       java TournamentDaemon stop [-dir D]");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,295 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/* 
+ Results accumulated over a run of tournaments. Each worker fills in its own
+ TournamentStats, and they are added together with merge() at the end, so the
+ counters never need to be shared between threads.
+ 
+ Besides the placements of the tracked player, every player's scores and
+ ranks are kept as running aggregates: the sum and sum of squares of its
+ total score (for the mean and variance), how often it finished in each
+ place, and how often it finished above each other player. */
+
+class TournamentStats {
+	final int numPlayers;
+	int tournaments = 0;
+	
+	// Placements of the tracked player (tan_JamesCheeMin by default).
+	int wins = 0;
+	int runnerUp = 0;
+	int secondRunnerUp = 0;
+	
+	final double[] scoreSum;
+	final double[] scoreSquares;
+	final long[][] rankCounts;  // rankCounts[p][r]: tournaments where p came in place r (0 is first)
+	final long[][] headToHead;  // headToHead[p][q]: tournaments where p finished above q
+	
+	// For standard errors of every player's places and mean score. Tournaments
+	// are taken in blocks of blockSize, numbered from tournament 0, which are
+	// independent of each other even when the tournaments within a block are
+	// not (see ThreePrisonersDilemma.sampleBlock()), and the errors come from
+	// the spread of the blocks' totals. A block never spans two chunks of the
+	// runner, so the sums below merge like the rest.
+	int blockSize = 1;
+	long blocks = 0;
+	double blockSizeSquares = 0;       // sum over blocks of (tournaments)^2
+	final double[][] blockPlaceSquares; // [p][r]: sum over blocks of (p's r-th places)^2, for 1st, 2nd and 3rd
+	final double[][] blockPlaceCross;   // [p][r]: sum over blocks of (p's r-th places) * tournaments
+	final double[] blockScoreSquares;   // [p]: sum over blocks of (p's total score)^2
+	final double[] blockScoreCross;     // [p]: sum over blocks of (p's total score) * tournaments
+	private int block = -1;            // the block being added up, and its totals:
+	private int inBlock = 0;           // tournaments
+	private final int[][] placesInBlock; // [p][r]
+	private final double[] scoreInBlock; // [p]
+	
+	// When records is set, record() also appends each tournament's scores and
+	// ranks to it, in the format ResultStream writes to disk.
+	ByteArrayOutputStream records = null;
+	private DataOutputStream recordsOut = null;
+	private final int[] rank;
+	
+	TournamentStats(int numPlayers) {
+		this.numPlayers = numPlayers;
+		scoreSum = new double[numPlayers];
+		scoreSquares = new double[numPlayers];
+		rankCounts = new long[numPlayers][numPlayers];
+		headToHead = new long[numPlayers][numPlayers];
+		rank = new int[numPlayers];
+		int places = Math.min(3, numPlayers);
+		blockPlaceSquares = new double[numPlayers][places];
+		blockPlaceCross = new double[numPlayers][places];
+		blockScoreSquares = new double[numPlayers];
+		blockScoreCross = new double[numPlayers];
+		placesInBlock = new int[numPlayers][places];
+		scoreInBlock = new double[numPlayers];
+	}
+	
+	void keepRecords() {
+		records = new ByteArrayOutputStream();
+		recordsOut = new DataOutputStream(records);
+	}
+	
+	// Adds one tournament's total scores, with the players listed from first
+	// to last place in sortedOrder.
+	void record(int tournament, float[] totalScore, int[] sortedOrder) {
+		for (int r=0; r<numPlayers; r++)
+			rank[sortedOrder[r]] = r;
+		if (tournament / blockSize != block) {
+			closeBlock();
+			block = tournament / blockSize;
+		}
+		inBlock++;
+		for (int p=0; p<numPlayers; p++) {
+			double score = totalScore[p];
+			scoreSum[p] += score;
+			scoreSquares[p] += score * score;
+			scoreInBlock[p] += score;
+			if (rank[p] < 3) placesInBlock[p][rank[p]]++;
+			rankCounts[p][rank[p]]++;
+			for (int q=rank[p]+1; q<numPlayers; q++)
+				headToHead[p][sortedOrder[q]]++;
+		}
+		if (recordsOut != null) {
+			try {
+				recordsOut.writeInt(tournament);
+				for (int p=0; p<numPlayers; p++) {
+					recordsOut.writeFloat(totalScore[p]);
+					recordsOut.writeByte(rank[p]);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e); // cannot happen writing to memory
+			}
+		}
+	}
+	
+	private void closeBlock() {
+		if (inBlock == 0) return;
+		blocks++;
+		blockSizeSquares += (double) inBlock * inBlock;
+		for (int p=0; p<numPlayers; p++) {
+			for (int r=0; r<placesInBlock[p].length; r++) {
+				blockPlaceSquares[p][r] += (double) placesInBlock[p][r] * placesInBlock[p][r];
+				blockPlaceCross[p][r] += (double) placesInBlock[p][r] * inBlock;
+			}
+			blockScoreSquares[p] += scoreInBlock[p] * scoreInBlock[p];
+			blockScoreCross[p] += scoreInBlock[p] * inBlock;
+			Arrays.fill(placesInBlock[p], 0);
+		}
+		Arrays.fill(scoreInBlock, 0);
+		inBlock = 0;
+	}
+	
+	// How often the tracked player finished in the given place (0 is first).
+	int placements(int place) {
+		return place == 0 ? wins : place == 1 ? runnerUp : secondRunnerUp;
+	}
+	
+	// The standard error of player p's rate of finishing in the given place
+	// (0 is first), from the spread between blocks. NaN with fewer than two
+	// blocks.
+	double placementError(int p, int place) {
+		closeBlock();
+		return blockError(rankCounts[p][place], blockPlaceSquares[p][place], blockPlaceCross[p][place]);
+	}
+	
+	// The standard error of player p's mean score, in the same way.
+	double scoreError(int p) {
+		closeBlock();
+		return blockError(scoreSum[p], blockScoreSquares[p], blockScoreCross[p]);
+	}
+	
+	// The standard error of a per-tournament mean from its total and the sums
+	// over blocks of its block totals squared and times the block's size (a
+	// ratio estimate, as the last block may be short).
+	private double blockError(double total, double squares, double cross) {
+		if (blocks < 2) return Double.NaN;
+		double mean = total / tournaments;
+		double spread = squares - 2 * mean * cross + mean * mean * blockSizeSquares;
+		return Math.sqrt(Math.max(spread, 0) * blocks / (blocks - 1)) / tournaments;
+	}
+	
+	void merge(TournamentStats other) {
+		other.closeBlock();
+		closeBlock();
+		blockSize = other.blockSize;
+		blocks += other.blocks;
+		blockSizeSquares += other.blockSizeSquares;
+		for (int p=0; p<numPlayers; p++) {
+			for (int r=0; r<blockPlaceSquares[p].length; r++) {
+				blockPlaceSquares[p][r] += other.blockPlaceSquares[p][r];
+				blockPlaceCross[p][r] += other.blockPlaceCross[p][r];
+			}
+			blockScoreSquares[p] += other.blockScoreSquares[p];
+			blockScoreCross[p] += other.blockScoreCross[p];
+		}
+		tournaments += other.tournaments;
+		wins += other.wins;
+		runnerUp += other.runnerUp;
+		secondRunnerUp += other.secondRunnerUp;
+		for (int p=0; p<numPlayers; p++) {
+			scoreSum[p] += other.scoreSum[p];
+			scoreSquares[p] += other.scoreSquares[p];
+			for (int q=0; q<numPlayers; q++) {
+				rankCounts[p][q] += other.rankCounts[p][q];
+				headToHead[p][q] += other.headToHead[p][q];
+			}
+		}
+	}
+	
+	// Writes every counter, and the records if they are kept, so that read()
+	// gives back stats that merge() exactly as these would (see ShardQueue).
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(numPlayers);
+		out.writeInt(tournaments);
+		out.writeInt(wins);
+		out.writeInt(runnerUp);
+		out.writeInt(secondRunnerUp);
+		closeBlock();
+		out.writeInt(blockSize);
+		out.writeLong(blocks);
+		out.writeDouble(blockSizeSquares);
+		for (int p=0; p<numPlayers; p++) {
+			for (int r=0; r<blockPlaceSquares[p].length; r++) {
+				out.writeDouble(blockPlaceSquares[p][r]);
+				out.writeDouble(blockPlaceCross[p][r]);
+			}
+			out.writeDouble(blockScoreSquares[p]);
+			out.writeDouble(blockScoreCross[p]);
+			out.writeDouble(scoreSum[p]);
+			out.writeDouble(scoreSquares[p]);
+			for (int q=0; q<numPlayers; q++) {
+				out.writeLong(rankCounts[p][q]);
+				out.writeLong(headToHead[p][q]);
+			}
+		}
+		out.writeInt(records == null ? -1 : records.size());
+		if (records != null) records.writeTo(out);
+	}
+	
+	static TournamentStats read(DataInputStream in) throws IOException {
+		TournamentStats stats = new TournamentStats(in.readInt());
+		stats.tournaments = in.readInt();
+		stats.wins = in.readInt();
+		stats.runnerUp = in.readInt();
+		stats.secondRunnerUp = in.readInt();
+		stats.blockSize = in.readInt();
+		stats.blocks = in.readLong();
+		stats.blockSizeSquares = in.readDouble();
+		for (int p=0; p<stats.numPlayers; p++) {
+			for (int r=0; r<stats.blockPlaceSquares[p].length; r++) {
+				stats.blockPlaceSquares[p][r] = in.readDouble();
+				stats.blockPlaceCross[p][r] = in.readDouble();
+			}
+			stats.blockScoreSquares[p] = in.readDouble();
+			stats.blockScoreCross[p] = in.readDouble();
+			stats.scoreSum[p] = in.readDouble();
+			stats.scoreSquares[p] = in.readDouble();
+			for (int q=0; q<stats.numPlayers; q++) {
+				stats.rankCounts[p][q] = in.readLong();
+				stats.headToHead[p][q] = in.readLong();
+			}
+		}
+		int size = in.readInt();
+		if (size >= 0) {
+			byte[] bytes = new byte[size];
+			in.readFully(bytes);
+			stats.keepRecords();
+			stats.records.write(bytes);
+		}
+		return stats;
+	}
+	
+	double meanScore(int p) {
+		return scoreSum[p] / tournaments;
+	}
+	
+	// The sample variance of player p's total score.
+	double scoreVariance(int p) {
+		if (tournaments < 2) return 0;
+		double mean = meanScore(p);
+		return Math.max(scoreSquares[p] - tournaments * mean * mean, 0) / (tournaments - 1);
+	}
+	
+	double meanRank(int p) {
+		double sum = 0;
+		for (int r=0; r<numPlayers; r++)
+			sum += (double) r * rankCounts[p][r];
+		return sum / tournaments;
+	}
+	
+	// A table of every player's results, best mean rank first, followed by the
+	// head-to-head matrix: the percentage of tournaments in which the player of
+	// the row finished above the player of the column.
+	void printSummary(StrategyRegistry registry, PrintStream out) {
+		Integer[] order = new Integer[numPlayers];
+		for (int p=0; p<numPlayers; p++)
+			order[p] = p;
+		Arrays.sort(order, (p, q) -> Double.compare(meanRank(p), meanRank(q)));
+		out.printf("%-28s %9s %8s %9s %7s %7s %7s%n", "Player", "Mean", "SD", "Mean rank", "1st %", "2nd %", "3rd %");
+		for (int p : order) {
+			out.printf("%-28s %9.3f %8.3f %9.2f %7.2f %7.2f %7.2f%n", registry.name(p), meanScore(p),
+					Math.sqrt(scoreVariance(p)), meanRank(p) + 1, percent(rankCounts[p][0]),
+					percent(numPlayers > 1 ? rankCounts[p][1] : 0), percent(numPlayers > 2 ? rankCounts[p][2] : 0));
+		}
+		out.println();
+		out.print("Head to head (% of tournaments row finished above column)\n    ");
+		for (int q : order)
+			out.printf(" %5d", q);
+		out.println();
+		for (int p : order) {
+			out.printf("%3d ", p);
+			for (int q : order)
+				out.print(p == q ? "     -" : String.format(" %5.1f", percent(headToHead[p][q])));
+			out.println("  " + registry.name(p));
+		}
+	}
+	
+	private double percent(long count) {
+		return 100.0 * count / tournaments;
+	}
+}
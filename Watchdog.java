@@ -0,0 +1,179 @@
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ Gives every selectAction call a time budget (see -budget). A player whose
+ call runs over forfeits it: the call counts as a defection, whatever it
+ returns, and the player defects without being asked for the rest of the
+ match, so a strategy that is slow on long histories does not go on being
+ slow. Every forfeit is logged, and counted for the summary at the end.
+
+ The workers do not time their calls. Each one has a Slot with a call
+ counter, which it bumps on the way into a call, making it odd, and again on
+ the way out. One timer thread, shared by the whole run, looks at every slot
+ a few times per budget: a slot whose counter is still at the same odd value
+ a budget after the timer first saw it is in a call that has run over. So a
+ call costs the worker an ordered store on the way in and an atomic increment
+ on the way out, and no thread handoff; a call is caught between one budget
+ and one and a half budgets after it started.
+
+ The timer and the worker race to the end of a call that runs over, and only
+ one of them may win. The timer claims the call by setting the counter's top
+ bit with a compareAndSet from the odd value it saw, so it fails if the call
+ has ended in the meantime. The worker leaves the call with getAndIncrement
+ and forfeits it only if the bit was set, so every logged forfeit is applied
+ and every applied forfeit is logged. Whatever stops the worker during a call, a garbage collection or
+ the JIT, counts against it too, so budgets should leave room for pauses.
+
+ A call that never returns cannot be stopped from inside the JVM. The timer
+ interrupts the worker, which ends calls that sleep or wait, and logs the
+ forfeit. The interrupt is sent under the slot's lock, only once the call has
+ been claimed, and the worker clears it under the same lock as it leaves that
+ call, so no interrupt is left behind for a later call. A claimed call that
+ has still not returned a grace period later (GRACE, or one budget if that is
+ longer) is taken to be one that never will: the timer marks the run as
+ stuck, and the runners, which wait for their workers through await(), fail
+ the run with an error naming the strategy. The stuck worker is a daemon
+ thread and is left behind, so the JVM can still exit. */
+
+class Watchdog {
+	// How long a claimed call may go on before the run gives up on it
+	static final long GRACE = TimeUnit.SECONDS.toNanos(2);
+
+	final long budget; // nanoseconds
+	private final long grace; // nanoseconds
+	private final long period; // nanoseconds
+	private volatile String stuck = null; // why the run cannot go on
+	private final List<Slot> slots = new CopyOnWriteArrayList<>();
+	private final ScheduledExecutorService timer;
+	private final Map<String, Long> forfeits = new TreeMap<>(); // only used by the timer
+	private final PrintStream log;
+
+	static final class Slot {
+		// Set in calls by the timer when it claims a call that ran over.
+		private static final long OVERRUN = Long.MIN_VALUE;
+		
+		private final AtomicLong calls = new AtomicLong(); // odd while in a call
+		// For the log. The timer reads them once it has claimed the call.
+		private Thread thread;
+		private Player player;
+		private int round;
+		// Only used by the timer
+		private long seen = 0;
+		private long since;
+
+		void enter(Player player, int round) {
+			if (thread == null) thread = Thread.currentThread();
+			this.player = player;
+			this.round = round;
+			calls.lazySet(calls.get() + 1);
+		}
+
+		// Whether the call that just ended ran over its budget.
+		boolean exit() {
+			long call = calls.getAndIncrement();
+			if ((call & OVERRUN) == 0) return false;
+			calls.set((call + 1) & ~OVERRUN);
+			synchronized (this) {
+				Thread.interrupted(); // clear the timer's interrupt
+			}
+			return true;
+		}
+	}
+
+	Watchdog(long budget, PrintStream log) {
+		this.budget = budget;
+		this.log = log;
+		grace = Math.max(budget, GRACE);
+		timer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		period = Math.max(budget / 2, TimeUnit.MICROSECONDS.toNanos(100));
+		timer.scheduleAtFixedRate(this::check, period, period, TimeUnit.NANOSECONDS);
+	}
+
+	// A slot for one worker.
+	Slot slot() {
+		Slot slot = new Slot();
+		slots.add(slot);
+		return slot;
+	}
+
+	private void check() {
+		long now = System.nanoTime();
+		for (Slot slot : slots) {
+			long call = slot.calls.get();
+			if (call != slot.seen) {
+				slot.seen = call;
+				slot.since = now;
+			} else if ((call & Slot.OVERRUN) != 0 && stuck == null && now - slot.since >= grace) {
+				Player player = slot.player;
+				int round = slot.round;
+				if (slot.calls.get() != call) continue; // it has just returned
+				stuck = String.format("%s has been in selectAction for over %.1f s in round %d "
+						+ "and is taken never to return; the run cannot go on",
+						player == null ? "?" : player.name(), (now - slot.since + budget) / 1e9, round);
+				log.println("Watchdog: " + stuck);
+			} else if ((call & 1) == 1 && (call & Slot.OVERRUN) == 0 && now - slot.since >= budget) {
+				Player player;
+				int round;
+				synchronized (slot) {
+					if (!slot.calls.compareAndSet(call, call | Slot.OVERRUN)) continue; // it has just returned
+					slot.thread.interrupt();
+					// The worker cannot leave this call, and so cannot start
+					// another, until it has the lock: exit() takes it once it
+					// sees the claim
+					player = slot.player;
+					round = slot.round;
+				}
+				String name = player == null ? "?" : player.name();
+				forfeits.merge(name, 1L, Long::sum);
+				log.printf("Watchdog: %s has been in selectAction for over %.3f ms in round %d; "
+						+ "it forfeits the round and defects for the rest of the match%n",
+						name, budget / 1e6, round);
+			}
+		}
+	}
+
+	// Waits for a worker's task like Future.get(), but fails the run if a
+	// call has got stuck in the meantime.
+	<T> T await(Future<T> task) throws InterruptedException, ExecutionException {
+		while (true) {
+			if (stuck != null) throw new IllegalStateException(stuck);
+			try {
+				return task.get(period, TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				// look again
+			}
+		}
+	}
+
+	// Stops the timer, once the run is over.
+	void close() throws InterruptedException {
+		timer.shutdown();
+		timer.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	// How many calls each strategy forfeited.
+	void printSummary(PrintStream out) {
+		if (forfeits.isEmpty()) {
+			out.printf("No call went over the budget of %.3f ms%n", budget / 1e6);
+			return;
+		}
+		out.printf("Calls over the budget of %.3f ms%n", budget / 1e6);
+		for (Map.Entry<String, Long> entry : forfeits.entrySet())
+			out.printf("%-28s %8d%n", entry.getKey(), entry.getValue());
+	}
+}
@@ -0,0 +1,200 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.SplittableRandom;
+
+/**
+ * Access to the tournament engine for the benchmarks.
+ *
+ * <p>The engine is written in the default package, which JMH benchmarks cannot
+ * import from, so its package-private members are reached through method
+ * handles instead. The handles are constants, so the JIT inlines straight
+ * through them and the benchmarks measure the engine, not the reflection.
+ */
+final class Engine {
+
+	private static final MethodHandle NEW_ENGINE;
+	private static final MethodHandle SET_SEED;
+	private static final MethodHandle NUM_PLAYERS;
+	private static final MethodHandle MAKE_PLAYER;
+	private static final MethodHandle NAME;
+	private static final MethodHandle SET_RNG;
+	private static final MethodHandle SCORES_OF_MATCH;
+	private static final MethodHandle NEW_HISTORY;
+	private static final MethodHandle APPEND;
+	private static final MethodHandle CLEAR;
+	private static final MethodHandle SELECT_ACTION;
+	private static final MethodHandle NEW_STATS;
+	private static final MethodHandle RUN_TOURNAMENT;
+	private static final int[] PAYOFF;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			Class<?> engine = Class.forName("ThreePrisonersDilemma");
+			Class<?> player = Class.forName("Player");
+			Class<?> history = Class.forName("History");
+			Class<?> stats = Class.forName("TournamentStats");
+			Class<?> registry = Class.forName("StrategyRegistry");
+
+			NEW_ENGINE = erase(lookup.unreflectConstructor(accessible(engine.getDeclaredConstructor())));
+			SET_SEED = erase(lookup.unreflectSetter(accessible(engine.getDeclaredField("seed"))));
+			NUM_PLAYERS = erase(MethodHandles.filterReturnValue(
+					lookup.unreflectGetter(accessible(engine.getDeclaredField("registry"))),
+					lookup.unreflect(accessible(registry.getDeclaredMethod("size")))));
+			MAKE_PLAYER = erase(lookup.unreflect(accessible(engine.getDeclaredMethod("makePlayer", int.class))));
+			NAME = erase(lookup.unreflect(accessible(player.getDeclaredMethod("name"))));
+			SET_RNG = erase(lookup.unreflectSetter(accessible(player.getDeclaredField("rng"))));
+			SCORES_OF_MATCH = erase(lookup.unreflect(accessible(engine.getDeclaredMethod("scoresOfMatch",
+					player, player, player, int.class))));
+			NEW_HISTORY = erase(lookup.unreflectConstructor(accessible(history.getDeclaredConstructor(int.class))));
+			APPEND = erase(lookup.unreflect(accessible(history.getDeclaredMethod("append", int.class, int.class))));
+			CLEAR = erase(lookup.unreflect(accessible(history.getDeclaredMethod("clear"))));
+			SELECT_ACTION = erase(lookup.unreflect(accessible(player.getDeclaredMethod("selectAction",
+					int.class, history, history, history))));
+			NEW_STATS = erase(lookup.unreflectConstructor(accessible(stats.getDeclaredConstructor(int.class))));
+			RUN_TOURNAMENT = erase(lookup.unreflect(accessible(engine.getDeclaredMethod("runTournament",
+					int.class, stats))));
+			PAYOFF = (int[]) accessible(engine.getDeclaredField("PAYOFF")).get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static <T extends java.lang.reflect.AccessibleObject> T accessible(T member) {
+		member.setAccessible(true);
+		return member;
+	}
+
+	/** Replaces every engine type in the handle's signature with Object. */
+	private static MethodHandle erase(MethodHandle handle) {
+		MethodType type = handle.type();
+		for (int i = 0; i < type.parameterCount(); i++) {
+			if (!type.parameterType(i).isPrimitive()) {
+				type = type.changeParameterType(i, Object.class);
+			}
+		}
+		if (!type.returnType().isPrimitive() && type.returnType() != float[].class) {
+			type = type.changeReturnType(Object.class);
+		}
+		return handle.asType(type);
+	}
+
+	private final Object instance;
+
+	Engine(long seed) {
+		try {
+			instance = (Object) NEW_ENGINE.invokeExact();
+			SET_SEED.invokeExact(instance, seed);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	int numPlayers() {
+		try {
+			return (int) NUM_PLAYERS.invokeExact(instance);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	Object makePlayer(int which) {
+		try {
+			return (Object) MAKE_PLAYER.invokeExact(instance, which);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static String name(Object player) {
+		try {
+			return (String) NAME.invokeExact(player);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/** Gives the player its own random stream, as the tournament does before each match. */
+	static void seed(Object player, SplittableRandom random) {
+		try {
+			SET_RNG.invokeExact(player, (Object) random.split());
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	float[] scoresOfMatch(Object a, Object b, Object c, int rounds) {
+		try {
+			return (float[]) SCORES_OF_MATCH.invokeExact(instance, a, b, c, rounds);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/** An empty match history with room for the given number of rounds. */
+	static Object history(int capacity) {
+		try {
+			return (Object) NEW_HISTORY.invokeExact(capacity);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static void append(Object history, int play, int payoff) {
+		try {
+			APPEND.invokeExact(history, play, payoff);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static void clear(Object history) {
+		try {
+			CLEAR.invokeExact(history);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/** The payoff to a player who plays mine while its opponents play first and second. */
+	static int payoff(int mine, int first, int second) {
+		return PAYOFF[mine << 2 | first << 1 | second];
+	}
+
+	static int selectAction(Object player, int n, Object myHistory, Object oppHistory1, Object oppHistory2) {
+		try {
+			return (int) SELECT_ACTION.invokeExact(player, n, myHistory, oppHistory1, oppHistory2);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static Object newStats(int numPlayers) {
+		try {
+			return (Object) NEW_STATS.invokeExact(numPlayers);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	void runTournament(int tournament, Object stats) {
+		try {
+			RUN_TOURNAMENT.invokeExact(instance, tournament, stats);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException) {
+			return (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new IllegalStateException(t);
+	}
+}
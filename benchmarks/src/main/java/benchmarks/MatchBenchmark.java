@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One full {@code scoresOfMatch} for a few representative triples, with fresh
+ * players each time as {@code runTournament} does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchBenchmark {
+
+	/**
+	 * Player ids from {@code makePlayer}: all tan_JamesCheeMin, all TolerantPlayer,
+	 * the three random players, Nice/Nasty/PM_Low and Bummer/HardProber/Tideman.
+	 */
+	@Param({"0-0-0", "9-9-9", "13-14-11", "10-12-2", "3-4-5"})
+	public String triple;
+
+	@Param({"100"})
+	public int rounds;
+
+	private Engine engine;
+	private SplittableRandom random;
+	private int a, b, c;
+
+	@Setup
+	public void setUp() {
+		engine = new Engine(42);
+		random = new SplittableRandom(42);
+		String[] ids = triple.split("-");
+		a = Integer.parseInt(ids[0]);
+		b = Integer.parseInt(ids[1]);
+		c = Integer.parseInt(ids[2]);
+	}
+
+	@Benchmark
+	public float[] scoresOfMatch() {
+		return engine.scoresOfMatch(player(a), player(b), player(c), rounds);
+	}
+
+	private Object player(int id) {
+		Object player = engine.makePlayer(id);
+		Engine.seed(player, random);
+		return player;
+	}
+}
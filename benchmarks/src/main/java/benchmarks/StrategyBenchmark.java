@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of the {@code selectAction} calls a strategy from {@code makePlayer}
+ * makes over the first n rounds of a match, against two fixed sequences of
+ * opponent plays.
+ *
+ * <p>Each invocation starts from a fresh player and empty histories, as a match
+ * does, so strategies that latch a mode or count up over the match go through
+ * the same branches they would in play instead of settling into one. The score
+ * is for the whole prefix: strategies that rescan the histories on each call
+ * grow faster than n, the rest in proportion to it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StrategyBenchmark {
+
+	@Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14"})
+	public int player;
+
+	@Param({"10", "50", "100"})
+	public int n;
+
+	private Engine engine;
+	private SplittableRandom random;
+	private int[] first, second;
+	private Object myHistory, oppHistory1, oppHistory2;
+
+	@Setup
+	public void setUp() {
+		engine = new Engine(42);
+		random = new SplittableRandom(42);
+		first = plays(random);
+		second = plays(random);
+		myHistory = Engine.history(110);
+		oppHistory1 = Engine.history(110);
+		oppHistory2 = Engine.history(110);
+	}
+
+	/** n plays, about a third of them defections. */
+	private int[] plays(SplittableRandom random) {
+		int[] plays = new int[n];
+		for (int i = 0; i < n; i++) {
+			plays[i] = random.nextInt(3) == 0 ? 1 : 0;
+		}
+		return plays;
+	}
+
+	@Benchmark
+	public int selectAction() {
+		Object strategy = engine.makePlayer(player);
+		Engine.seed(strategy, random);
+		Engine.clear(myHistory);
+		Engine.clear(oppHistory1);
+		Engine.clear(oppHistory2);
+		int defections = 0;
+		for (int i = 0; i < n; i++) {
+			int mine = Engine.selectAction(strategy, i, myHistory, oppHistory1, oppHistory2);
+			Engine.append(myHistory, mine, Engine.payoff(mine, first[i], second[i]));
+			Engine.append(oppHistory1, first[i], Engine.payoff(first[i], mine, second[i]));
+			Engine.append(oppHistory2, second[i], Engine.payoff(second[i], mine, first[i]));
+			defections += mine;
+		}
+		return defections;
+	}
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One complete {@code runTournament}: every triple of the roster, then the
+ * ranking. Each call plays the next tournament of a seeded run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TournamentBenchmark {
+
+	private Engine engine;
+	private Object stats;
+	private int tournament;
+
+	@Setup
+	public void setUp() {
+		engine = new Engine(42);
+		stats = Engine.newStats(engine.numPlayers());
+		tournament = 0;
+	}
+
+	@Benchmark
+	public Object runTournament() {
+		engine.runTournament(tournament++, stats);
+		return stats;
+	}
+}
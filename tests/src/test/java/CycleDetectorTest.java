@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/* -fastforward skips the rest of a match once its deterministic players go
+ round a cycle. Every match it can skip must score the same as when it is
+ played round by round. */
+
+class CycleDetectorTest {
+	@Test
+	void fastForwardScoresEveryMatchAsPlayedInFull() {
+		ThreePrisonersDilemma game = Games.plain();
+		game.cycles = new CycleDetector();
+		game.preparePlayers();
+		int numPlayers = game.registry.size(), skipped = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			if (!game.deterministic[i] || !game.deterministic[j] || !game.deterministic[k]) continue;
+			for (int rounds=90; rounds<=ThreePrisonersDilemma.MAX_ROUNDS; rounds++) {
+				float[] fast = play(game, i, j, k, rounds, true);
+				if (game.cycles.fastForwarded) skipped++;
+				float[] full = play(game, i, j, k, rounds, false);
+				assertArrayEquals(full, fast, game.registry.name(i) + ", " + game.registry.name(j)
+						+ " and " + game.registry.name(k) + " over " + rounds + " rounds");
+			}
+		}
+		assertTrue(skipped > 0);
+	}
+
+	@Test
+	void fastForwardRunIsTheSame() throws Exception {
+		ThreePrisonersDilemma fast = Games.plain();
+		fast.cycles = new CycleDetector();
+		Games.assertSameStats(Games.plain().runTournaments(200, 2), fast.runTournaments(200, 2));
+	}
+
+	// GosuTheMinion is a NicePlayer with a selectAction of its own, so
+	// NicePlayer's constant state does not describe it.
+	@Test
+	void cycleStatesAreNotInherited() {
+		ThreePrisonersDilemma game = Games.plain();
+		History empty = new History(1);
+		assertEquals(0, game.new NicePlayer().cycleKey(0, empty, empty, empty));
+		assertEquals(Player.NO_CYCLE_STATE, game.new GosuTheMinion().cycleKey(0, empty, empty, empty));
+	}
+
+	private static float[] play(ThreePrisonersDilemma game, int i, int j, int k, int rounds, boolean fastForward) {
+		SplittableRandom random = new SplittableRandom(Games.SEED);
+		Player A = game.player(i, 0), B = game.player(j, 1), C = game.player(k, 2);
+		A.rng = random.split();
+		B.rng = random.split();
+		C.rng = random.split();
+		return game.playMatch(A, B, C, rounds, fastForward);
+	}
+}
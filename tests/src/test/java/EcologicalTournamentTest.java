@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/* The ecological mode averages every triple's matches into a tensor of
+ expected scores, in parallel and through the MatchCache. Each entry must be
+ the mean of the plain engine's matches in which the strategy met those two
+ opponents, in whatever seats. */
+
+class EcologicalTournamentTest {
+	static final int TOURNAMENTS = 30;
+
+	@Test
+	void tensorIsTheMeanOfThePlayedMatches() throws Exception {
+		ThreePrisonersDilemma game = Games.plain();
+		game.matchCache = Games.cache(game);
+		EcologicalTournament ecological = new EcologicalTournament(game);
+		ecological.computeTensor(TOURNAMENTS, 3);
+
+		int n = game.registry.size();
+		double[] total = new double[n * n * n];
+		int[] count = new int[total.length];
+		ThreePrisonersDilemma plain = Games.plain();
+		for (int tournament=0; tournament<TOURNAMENTS; tournament++) {
+			float[] scores = Games.triples(plain, tournament);
+			int triple = 0;
+			for (int i=0; i<n; i++) for (int j=i; j<n; j++) for (int k=j; k<n; k++) {
+				int[] seats = {i, j, k};
+				for (int s=0; s<3; s++) {
+					// The strategy in seat s met the other two, in either order
+					int p = seats[s], q = seats[(s+1)%3], r = seats[(s+2)%3];
+					for (int e : new int[] {(p*n + q)*n + r, (p*n + r)*n + q}) {
+						total[e] += scores[3*triple + s];
+						count[e]++;
+					}
+				}
+				triple++;
+			}
+		}
+		for (int e=0; e<total.length; e++)
+			assertEquals(total[e] / count[e], ecological.expected[e], 1e-9, "entry " + e);
+	}
+
+	@Test
+	void tensorDoesNotDependOnThreads() throws Exception {
+		EcologicalTournament one = new EcologicalTournament(Games.plain());
+		one.computeTensor(TOURNAMENTS, 1);
+		EcologicalTournament three = new EcologicalTournament(Games.plain());
+		three.computeTensor(TOURNAMENTS, 3);
+		assertArrayEquals(one.expected, three.expected);
+	}
+
+	@Test
+	void sharesStayAPopulation() throws Exception {
+		EcologicalTournament ecological = new EcologicalTournament(Games.plain());
+		ecological.computeTensor(TOURNAMENTS, 2);
+		for (double[] shares : ecological.evolve(200)) {
+			double sum = 0;
+			for (double share : shares)
+				sum += share;
+			assertEquals(1, sum, 1e-9);
+		}
+	}
+}
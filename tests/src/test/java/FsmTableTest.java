@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/* -fsm plays strategies with state machines in lockstep batches instead of
+ calling selectAction. The machines draw their random numbers differently,
+ so matches with random players can only be compared on average: over many
+ matches, the batches and the plain engine must come out at the same mean
+ scores, within a few standard errors. Matches between deterministic players
+ must come out the same, match for match. */
+
+class FsmTableTest {
+	static final int MATCHES = 600;
+
+	@Test
+	void machinesPlayAsTheirStrategies() {
+		ThreePrisonersDilemma game = Games.plain();
+		game.preparePlayers();
+		int numPlayers = game.registry.size(), checked = 0;
+		FsmTable[] tables = new FsmTable[numPlayers];
+		for (int p=0; p<numPlayers; p++)
+			tables[p] = ModelledPlayer.tableOf(game.player(p, 0));
+		SplittableRandom random = new SplittableRandom(Games.SEED);
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			if (tables[i] == null || tables[j] == null || tables[k] == null) continue;
+			String triple = game.registry.name(i) + ", " + game.registry.name(j) + " and " + game.registry.name(k);
+			if (game.deterministic[i] && game.deterministic[j] && game.deterministic[k]) {
+				for (int rounds=90; rounds<=ThreePrisonersDilemma.MAX_ROUNDS; rounds++) {
+					float[] batch = FsmTable.play(tables[i], tables[j], tables[k], new int[] {rounds}, new long[3], new boolean[1]);
+					assertArrayEquals(MatchCacheTest.play(game, i, j, k, rounds, 0), batch, triple + " over " + rounds + " rounds");
+				}
+			} else {
+				int[] rounds = new int[MATCHES];
+				long[] seeds = new long[3 * MATCHES];
+				Arrays.fill(rounds, 100);
+				for (int s=0; s<seeds.length; s++)
+					seeds[s] = random.nextLong();
+				float[] batch = FsmTable.play(tables[i], tables[j], tables[k], rounds, seeds, new boolean[MATCHES]);
+				double[][] machine = new double[3][MATCHES], played = new double[3][MATCHES];
+				for (int m=0; m<MATCHES; m++) {
+					float[] scores = MatchCacheTest.play(game, i, j, k, 100, random.nextLong());
+					for (int s=0; s<3; s++) {
+						machine[s][m] = batch[3*m + s];
+						played[s][m] = scores[s];
+					}
+				}
+				for (int s=0; s<3; s++) {
+					double error = Math.hypot(standardError(machine[s]), standardError(played[s]));
+					assertEquals(mean(played[s]), mean(machine[s]), 5 * error + 1e-4, "seat " + s + " of " + triple);
+				}
+			}
+			checked++;
+		}
+		assertTrue(checked > 0);
+	}
+
+	// A machine describes the selectAction next to it, so a subclass with a
+	// selectAction of its own does not get its parent's.
+	@Test
+	void machinesAreNotInherited() {
+		ThreePrisonersDilemma game = Games.plain();
+		assertNotNull(ModelledPlayer.tableOf(game.new NastyPlayer()));
+		assertNull(ModelledPlayer.tableOf(game.new Bummer()));
+		assertNull(ModelledPlayer.tableOf(game.new GosuTheMinion()));
+		assertNull(ModelledPlayer.tableOf(game.new Tideman()));
+	}
+
+	private static double mean(double[] values) {
+		return Arrays.stream(values).average().getAsDouble();
+	}
+
+	private static double standardError(double[] values) {
+		double mean = mean(values), squares = 0;
+		for (double value : values)
+			squares += (value - mean) * (value - mean);
+		return Math.sqrt(squares / (values.length - 1) / values.length);
+	}
+}
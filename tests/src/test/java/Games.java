@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/* What the tests share: games set up as run() would set them up, and the
+ plain engine to compare the shortcuts with, which plays every match in full
+ with none of them. */
+
+final class Games {
+	static final long SEED = 7;
+
+	private Games() {
+	}
+
+	// The built-in strategies, with no shortcut switched on.
+	static ThreePrisonersDilemma plain() {
+		ThreePrisonersDilemma game = new ThreePrisonersDilemma();
+		game.seed = SEED;
+		return game;
+	}
+
+	static MatchCache cache(ThreePrisonersDilemma game) {
+		return new MatchCache(game.registry.size(), 90, ThreePrisonersDilemma.MAX_ROUNDS);
+	}
+
+	// Every triple's scores in the given tournament, three to a triple, in
+	// the order the triples are played.
+	static float[] triples(ThreePrisonersDilemma game, int tournament) {
+		int numPlayers = game.registry.size();
+		game.playBatches(tournament, tournament + 1);
+		float[] scores = new float[3 * numPlayers * (numPlayers+1) * (numPlayers+2) / 6];
+		int triple = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			float[] match = game.scoreTriple(triple, i, j, k, tournament);
+			System.arraycopy(match, 0, scores, 3 * triple++, 3);
+		}
+		game.batchScores = null;
+		return scores;
+	}
+
+	static void assertSameStats(TournamentStats expected, TournamentStats actual) {
+		assertEquals(expected.tournaments, actual.tournaments);
+		assertEquals(expected.wins, actual.wins);
+		assertEquals(expected.runnerUp, actual.runnerUp);
+		assertEquals(expected.secondRunnerUp, actual.secondRunnerUp);
+		assertArrayEquals(expected.scoreSum, actual.scoreSum);
+		assertArrayEquals(expected.scoreSquares, actual.scoreSquares);
+		for (int p=0; p<expected.numPlayers; p++) {
+			assertArrayEquals(expected.rankCounts[p], actual.rankCounts[p]);
+			assertArrayEquals(expected.headToHead[p], actual.headToHead[p]);
+			assertEquals(expected.scoreError(p), actual.scoreError(p));
+		}
+	}
+}
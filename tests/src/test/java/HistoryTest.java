@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/* History packs the plays into longs and counts them with bit masks; these
+ tests count the same things over a plain int[] after every round, across
+ the word boundaries at 64 and 128. */
+
+class HistoryTest {
+	static final int ROUNDS = 150;
+
+	@Test
+	void countsMatchAPlainArray() {
+		SplittableRandom random = new SplittableRandom(1);
+		for (int match=0; match<50; match++) {
+			// Runs of the same play, as well as coin flips, to cover the streaks
+			double defect = random.nextDouble();
+			History mine = new History(ROUNDS), other = new History(ROUNDS);
+			int[] myPlays = new int[ROUNDS], otherPlays = new int[ROUNDS];
+			int score = 0;
+			for (int n=0; n<ROUNDS; n++) {
+				myPlays[n] = random.nextDouble() < defect ? 1 : 0;
+				otherPlays[n] = random.nextInt(2);
+				int payoff = random.nextInt(10);
+				mine.append(myPlays[n], payoff);
+				other.append(otherPlays[n], 0);
+				score += payoff;
+				check(mine, other, myPlays, otherPlays, n + 1, score);
+			}
+		}
+	}
+
+	@Test
+	void clearStartsAgain() {
+		History history = new History(ROUNDS);
+		for (int n=0; n<100; n++)
+			history.append(1, 5);
+		history.clear();
+		history.append(0, 3);
+		assertEquals(1, history.length());
+		assertEquals(0, history.defections());
+		assertEquals(0, history.defections(64));
+		assertEquals(3, history.score());
+		assertEquals(1, history.streak());
+		assertArrayEquals(new int[] {0}, history.toArray());
+	}
+
+	private static void check(History mine, History other, int[] myPlays, int[] otherPlays, int length, int score) {
+		assertEquals(length, mine.length());
+		assertEquals(score, mine.score());
+		int defections = 0;
+		for (int i=0; i<length; i++)
+			defections += myPlays[i];
+		assertEquals(defections, mine.defections());
+		assertEquals(length - defections, mine.cooperations());
+		for (int k : new int[] {0, 1, 2, 5, 63, 64, 65, 100, 128, 129, ROUNDS + 10}) {
+			int window = 0, agreements = 0;
+			for (int i=Math.max(length-k, 0); i<length; i++) {
+				window += myPlays[i];
+				if (myPlays[i] == otherPlays[i]) agreements++;
+			}
+			assertEquals(window, mine.defections(k), "defections in the last " + k + " of " + length);
+			assertEquals(agreements, mine.agreements(other, k), "agreements in the last " + k + " of " + length);
+		}
+		int streak = 1;
+		while (streak < length && myPlays[length-1-streak] == myPlays[length-1])
+			streak++;
+		assertEquals(streak, mine.streak());
+		for (int i=0; i<length; i++)
+			assertEquals(myPlays[i], mine.get(i));
+		assertArrayEquals(Arrays.copyOf(myPlays, length), mine.toArray());
+	}
+}
@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/* -exact scores a match between players with MarkovModels by its expected
+ value. Playing the match many times on the plain engine must come out at
+ the same mean, within a few standard errors of the sample. */
+
+class MarkovModelTest {
+	static final int MATCHES = 2000;
+
+	@Test
+	void expectedScoresAreTheMeansOfPlayedMatches() {
+		ThreePrisonersDilemma game = Games.plain();
+		game.preparePlayers();
+		int numPlayers = game.registry.size(), checked = 0;
+		SplittableRandom random = new SplittableRandom(Games.SEED);
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			if (game.markov[i] == null || game.markov[j] == null || game.markov[k] == null) continue;
+			for (int rounds : new int[] {90, 110}) {
+				float[] exact = MarkovModel.expectedScores(game.markov[i], game.markov[j], game.markov[k], rounds);
+				double[] sum = new double[3], squares = new double[3];
+				for (int m=0; m<MATCHES; m++) {
+					float[] scores = MatchCacheTest.play(game, i, j, k, rounds, random.nextLong());
+					for (int s=0; s<3; s++) {
+						sum[s] += scores[s];
+						squares[s] += scores[s] * scores[s];
+					}
+				}
+				for (int s=0; s<3; s++) {
+					double mean = sum[s] / MATCHES;
+					double error = Math.sqrt(Math.max(squares[s] / MATCHES - mean * mean, 0) / MATCHES);
+					assertEquals(exact[s], mean, 5 * error + 1e-4, "seat " + s + " of " + game.registry.name(i) + ", "
+							+ game.registry.name(j) + " and " + game.registry.name(k) + " over " + rounds + " rounds");
+				}
+			}
+			checked++;
+		}
+		assertTrue(checked > 0);
+	}
+
+	// A model describes the selectAction next to it, so a subclass with a
+	// selectAction of its own does not get its parent's.
+	@Test
+	void modelsAreNotInherited() {
+		ThreePrisonersDilemma game = Games.plain();
+		assertNotNull(ModelledPlayer.modelsOf(game.new NicePlayer()));
+		assertNull(ModelledPlayer.modelsOf(game.new GosuTheMinion()));
+		assertNull(ModelledPlayer.modelsOf(game.new Bummer()));
+		assertNull(ModelledPlayer.modelsOf(game.new Tideman()));
+		assertNull(ModelledPlayer.modelsOf(game.new NicePlayer() {
+			protected int selectAction(int n, History myHistory, History oppHistory1, History oppHistory2) {
+				return n % 2;
+			}
+		}));
+	}
+}
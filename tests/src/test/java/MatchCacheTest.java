@@ -0,0 +1,46 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/* The MatchCache plays a match between deterministic players once for each
+ number of rounds and serves it from then on, so it is only right if the
+ players that say isDeterministic() are. */
+
+class MatchCacheTest {
+	@Test
+	void cachedRunIsTheSame() throws Exception {
+		ThreePrisonersDilemma cached = Games.plain();
+		cached.matchCache = Games.cache(cached);
+		Games.assertSameStats(Games.plain().runTournaments(300, 2), cached.runTournaments(300, 2));
+	}
+
+	@Test
+	void deterministicPlayersIgnoreTheirRandomNumbers() {
+		ThreePrisonersDilemma game = Games.plain();
+		game.preparePlayers();
+		int numPlayers = game.registry.size(), checked = 0;
+		for (int i=0; i<numPlayers; i++) for (int j=i; j<numPlayers; j++) for (int k=j; k<numPlayers; k++) {
+			if (!game.deterministic[i] || !game.deterministic[j] || !game.deterministic[k]) continue;
+			for (int rounds : new int[] {90, 100, 110}) {
+				float[] first = play(game, i, j, k, rounds, 1);
+				float[] second = play(game, i, j, k, rounds, 2);
+				assertArrayEquals(first, second, game.registry.name(i) + ", " + game.registry.name(j)
+						+ " and " + game.registry.name(k) + " over " + rounds + " rounds");
+			}
+			checked++;
+		}
+		assertTrue(checked > 0);
+	}
+
+	static float[] play(ThreePrisonersDilemma game, int i, int j, int k, int rounds, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		Player A = game.player(i, 0), B = game.player(j, 1), C = game.player(k, 2);
+		A.rng = random.split();
+		B.rng = random.split();
+		C.rng = random.split();
+		return game.scoresOfMatch(A, B, C, rounds);
+	}
+}
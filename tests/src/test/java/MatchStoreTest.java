@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* -store keeps match results on disk between runs. What a run writes, a later
+ run must read back as the plain engine would have played it, and a run
+ that goes on from the stored tournaments must end up where a run from
+ scratch would. */
+
+class MatchStoreTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	void storedRunsAreTheSame() throws Exception {
+		TournamentStats fewer = Games.plain().runTournaments(100, 2), more = Games.plain().runTournaments(300, 2);
+		for (boolean cache : new boolean[] {false, true}) {
+			Path store = dir.resolve(cache ? "cached" : "uncached");
+			Games.assertSameStats(fewer, run(store, cache, 100)); // played and stored
+			Games.assertSameStats(fewer, run(store, cache, 100)); // read back
+			Games.assertSameStats(more, run(store, cache, 300)); // read back, then played on
+		}
+	}
+
+	@Test
+	void storeGivesBackThePlayedScores() throws Exception {
+		run(dir, false, 20);
+		ThreePrisonersDilemma game = Games.plain();
+		MatchStore store = new MatchStore(dir, game, 20);
+		int triples = game.registry.size() * (game.registry.size()+1) * (game.registry.size()+2) / 6;
+		assertEquals(triples, store.loaded());
+		ThreePrisonersDilemma plain = Games.plain();
+		for (int tournament : new int[] {0, 7, 19}) {
+			float[] scores = Games.triples(plain, tournament);
+			for (int triple=0; triple<triples; triple++)
+				assertArrayEquals(new float[] {scores[3*triple], scores[3*triple+1], scores[3*triple+2]},
+						store.get(triple, tournament), "triple " + triple + " in tournament " + tournament);
+		}
+		assertNull(store.get(0, 20));
+	}
+
+	@Test
+	void fingerprintsFollowParameters() throws Exception {
+		ThreePrisonersDilemma game = Games.plain();
+		ThreePrisonersDilemma.GosuTheMinion gosu = game.new GosuTheMinion(), tuned = game.new GosuTheMinion();
+		assertEquals(MatchStore.fingerprint(gosu, game), MatchStore.fingerprint(game.new GosuTheMinion(), game));
+		tuned.FRIENDLY_THRESHOLD = 0.9;
+		assertNotEquals(MatchStore.fingerprint(gosu, game), MatchStore.fingerprint(tuned, game));
+		ThreePrisonersDilemma exact = Games.plain();
+		exact.exact = true;
+		assertNotEquals(MatchStore.fingerprint(gosu, game), MatchStore.fingerprint(gosu, exact));
+	}
+
+	// A run of the given number of tournaments through the store, as run()
+	// does it.
+	private static TournamentStats run(Path store, boolean cache, int tournaments) throws Exception {
+		ThreePrisonersDilemma game = Games.plain();
+		if (cache) game.matchCache = Games.cache(game);
+		game.matchStore = new MatchStore(store, game, tournaments);
+		if (cache) game.matchStore.load(game.matchCache);
+		TournamentStats stats = game.runTournaments(tournaments, 2);
+		game.matchStore.save(stats.tournaments, game.matchCache, 90, ThreePrisonersDilemma.MAX_ROUNDS);
+		assertEquals(tournaments, stats.tournaments);
+		return stats;
+	}
+}
@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/* -stratified and -antithetic draw the lengths of a block of tournaments
+ together, and TournamentStats takes its standard errors from the spread of
+ the blocks instead of the tournaments. A block of single tournaments must
+ give the textbook standard error, the strata must each come up once a block,
+ and the blocks must not depend on how the run is split up. */
+
+class SamplingTest {
+	static final int PLAYERS = 4, TOURNAMENTS = 60;
+
+	@Test
+	void singleTournamentsGiveTheTextbookError() {
+		double[][] scores = scores();
+		TournamentStats stats = record(scores, 1, 0, TOURNAMENTS);
+		for (int p=0; p<PLAYERS; p++) {
+			assertEquals(standardError(scores[p]), stats.scoreError(p), 1e-9);
+			for (int place=0; place<3; place++)
+				assertEquals(standardError(placed(scores, p, place)), stats.placementError(p, place), 1e-12);
+		}
+	}
+
+	// With blocks of equal size, the error is that of the blocks' means.
+	@Test
+	void blocksGiveTheErrorOfTheirMeans() {
+		double[][] scores = scores();
+		int blockSize = 3;
+		TournamentStats stats = record(scores, blockSize, 0, TOURNAMENTS);
+		for (int p=0; p<PLAYERS; p++) {
+			double[] means = new double[TOURNAMENTS / blockSize];
+			for (int t=0; t<TOURNAMENTS; t++)
+				means[t / blockSize] += scores[p][t] / blockSize;
+			assertEquals(standardError(means), stats.scoreError(p), 1e-9);
+		}
+	}
+
+	@Test
+	void mergedChunksGiveTheSameErrors() {
+		double[][] scores = scores();
+		TournamentStats whole = record(scores, 3, 0, TOURNAMENTS);
+		TournamentStats chunks = record(scores, 3, 0, 21);
+		chunks.merge(record(scores, 3, 21, 45));
+		chunks.merge(record(scores, 3, 45, TOURNAMENTS));
+		for (int p=0; p<PLAYERS; p++) {
+			assertEquals(whole.scoreError(p), chunks.scoreError(p), 1e-9);
+			for (int place=0; place<3; place++)
+				assertEquals(whole.placementError(p, place), chunks.placementError(p, place), 1e-12);
+		}
+	}
+
+	@Test
+	void everyStratumComesUpOnceABlock() {
+		ThreePrisonersDilemma game = Games.plain();
+		game.roundSampling = ThreePrisonersDilemma.STRATIFIED_ROUNDS;
+		assertStrata(game, 1);
+		game.antithetic = true;
+		assertStrata(game, 2);
+	}
+
+	@Test
+	void sampledRunsDoNotDependOnThreads() throws Exception {
+		for (boolean antithetic : new boolean[] {false, true}) {
+			ThreePrisonersDilemma one = Games.plain(), three = Games.plain();
+			one.roundSampling = three.roundSampling = ThreePrisonersDilemma.STRATIFIED_ROUNDS;
+			one.antithetic = three.antithetic = antithetic;
+			Games.assertSameStats(one.runTournaments(210, 1), three.runTournaments(210, 3));
+		}
+	}
+
+	// Each length from 90 to 110 the given number of times in every block of
+	// every triple, and with -antithetic, each pair of tournaments' lengths
+	// mirror each other.
+	private static void assertStrata(ThreePrisonersDilemma game, int times) {
+		game.preparePlayers();
+		int numPlayers = game.registry.size(), block = game.sampleBlock();
+		assertEquals(ThreePrisonersDilemma.STRATA * times, block);
+		int triples = numPlayers * (numPlayers+1) * (numPlayers+2) / 6;
+		for (int triple=0; triple<triples; triple++) {
+			for (int first=0; first<3*block; first+=block) {
+				int[] counts = new int[ThreePrisonersDilemma.STRATA];
+				int[] rounds = new int[block];
+				for (int t=0; t<block; t++) {
+					rounds[t] = game.drawRounds(game.matchStream(first + t, triple), first + t, triple);
+					counts[rounds[t] - 90]++;
+				}
+				int[] expected = new int[ThreePrisonersDilemma.STRATA];
+				Arrays.fill(expected, times);
+				assertEquals(Arrays.toString(expected), Arrays.toString(counts), "triple " + triple + " from tournament " + first);
+				if (game.antithetic)
+					for (int t=0; t<block; t+=2)
+						assertEquals(200, rounds[t] + rounds[t+1]);
+			}
+		}
+	}
+
+	// Made-up total scores, [player][tournament].
+	private static double[][] scores() {
+		SplittableRandom random = new SplittableRandom(Games.SEED);
+		double[][] scores = new double[PLAYERS][TOURNAMENTS];
+		for (int p=0; p<PLAYERS; p++)
+			for (int t=0; t<TOURNAMENTS; t++)
+				scores[p][t] = Math.rint(100 * (p + random.nextDouble() * PLAYERS));
+		return scores;
+	}
+
+	private static TournamentStats record(double[][] scores, int blockSize, int from, int to) {
+		TournamentStats stats = new TournamentStats(PLAYERS);
+		stats.blockSize = blockSize;
+		for (int t=from; t<to; t++) {
+			float[] totals = new float[PLAYERS];
+			for (int p=0; p<PLAYERS; p++)
+				totals[p] = (float) scores[p][t];
+			stats.record(t, totals, order(totals));
+			stats.tournaments++;
+		}
+		return stats;
+	}
+
+	// The players from first to last place.
+	private static int[] order(float[] totals) {
+		Integer[] order = new Integer[PLAYERS];
+		for (int p=0; p<PLAYERS; p++)
+			order[p] = p;
+		Arrays.sort(order, (p, q) -> Float.compare(totals[q], totals[p]));
+		return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+	}
+
+	// 1 for each tournament in which p came in the given place, 0 otherwise.
+	private static double[] placed(double[][] scores, int p, int place) {
+		double[] placed = new double[TOURNAMENTS];
+		for (int t=0; t<TOURNAMENTS; t++) {
+			float[] totals = new float[PLAYERS];
+			for (int q=0; q<PLAYERS; q++)
+				totals[q] = (float) scores[q][t];
+			if (order(totals)[place] == p) placed[t] = 1;
+		}
+		return placed;
+	}
+
+	private static double standardError(double[] values) {
+		double mean = Arrays.stream(values).average().getAsDouble(), squares = 0;
+		for (double value : values)
+			squares += (value - mean) * (value - mean);
+		return Math.sqrt(squares / (values.length - 1) / values.length);
+	}
+}
@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* -shard splits a run into chunks that any number of processes claim from a
+ queue on disk, and -merge adds up the chunks they leave behind. However the
+ chunks were shared out, the merge must be the run the plain engine plays
+ in one go. */
+
+class ShardQueueTest {
+	static final int TOURNAMENTS = 450; // not a whole number of chunks
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void mergeIsThePlainRun() throws Exception {
+		ShardQueue queue = new ShardQueue(dir, Games.plain());
+		queue.create(TOURNAMENTS);
+		assertEquals(5, queue.play(Games.plain(), 2));
+		assertEquals(0, queue.remaining());
+		Games.assertSameStats(Games.plain().runTournaments(TOURNAMENTS, 2), queue.merge(null));
+	}
+
+	// Shards claim the chunks between them, so each chunk is played once.
+	@Test
+	void shardsShareTheChunks() throws Exception {
+		ExecutorService shards = Executors.newFixedThreadPool(3);
+		try {
+			Callable<Integer> shard = this::shard;
+			int played = 0;
+			for (Future<Integer> claimed : shards.invokeAll(List.of(shard, shard, shard)))
+				played += claimed.get();
+			assertEquals(5, played);
+		} finally {
+			shards.shutdown();
+		}
+		ShardQueue queue = new ShardQueue(dir, Games.plain());
+		queue.open();
+		Games.assertSameStats(Games.plain().runTournaments(TOURNAMENTS, 2), queue.merge(null));
+	}
+
+	// Stratified blocks of 21 tournaments make chunks of 105.
+	@Test
+	void mergeKeepsSamplingBlocks() throws Exception {
+		ThreePrisonersDilemma game = Games.plain();
+		game.roundSampling = ThreePrisonersDilemma.STRATIFIED_ROUNDS;
+		ShardQueue queue = new ShardQueue(dir, game);
+		queue.create(TOURNAMENTS);
+		assertEquals(5, queue.play(game, 2));
+		ThreePrisonersDilemma plain = Games.plain();
+		plain.roundSampling = ThreePrisonersDilemma.STRATIFIED_ROUNDS;
+		Games.assertSameStats(plain.runTournaments(TOURNAMENTS, 2), queue.merge(null));
+	}
+
+	@Test
+	void mergeNeedsEveryChunk() throws Exception {
+		ShardQueue queue = new ShardQueue(dir, Games.plain());
+		queue.create(TOURNAMENTS);
+		assertThrows(RuntimeException.class, () -> queue.merge(null));
+	}
+
+	private int shard() throws Exception {
+		ShardQueue queue = new ShardQueue(dir, Games.plain());
+		queue.create(TOURNAMENTS);
+		return queue.play(Games.plain(), 1);
+	}
+}